@@ -13,13 +13,24 @@ import android.widget.Button;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.games.Games;
-import com.google.android.gms.games.GamesStatusCodes;
-import com.google.android.gms.games.snapshot.Snapshot;
 import com.google.android.gms.games.snapshot.SnapshotMetadata;
 import com.google.android.gms.games.snapshot.Snapshots;
 import com.google.example.games.basegameutils.BaseGameActivity;
 
+import java.text.DateFormat;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import de.gehle.pauls.multisweeper.components.SaveQueue;
 import de.gehle.pauls.multisweeper.engine.Game;
+import de.gehle.pauls.multisweeper.storage.CloudSync;
+import de.gehle.pauls.multisweeper.storage.MetadataCache;
+import de.gehle.pauls.multisweeper.storage.MoveJournal;
+import de.gehle.pauls.multisweeper.storage.SaveLibrary;
+import de.gehle.pauls.multisweeper.storage.SaveMetadata;
+import de.gehle.pauls.multisweeper.storage.SnapshotBackend;
 
 import static com.google.android.gms.common.GooglePlayServicesUtil.isGooglePlayServicesAvailable;
 
@@ -34,6 +45,11 @@ public class HomeActivity extends BaseGameActivity {
     private MenuItem logoutButton;
     private MenuItem loginButton;
 
+    private SaveLibrary library;
+    private CloudSync cloudSync;
+    private MoveJournal journal;
+    private MetadataCache metadataCache;
+
     public HomeActivity() {
         super(BaseGameActivity.CLIENT_GAMES | BaseGameActivity.CLIENT_SNAPSHOT);
     }
@@ -44,9 +60,11 @@ public class HomeActivity extends BaseGameActivity {
         setContentView(R.layout.activity_home);
 
         continueButton = (Button) findViewById(R.id.continue_game_button);
-        if (isSignedIn()) {
-            checkSaveGame(SinglePlayerActivity.DEFAULT_SAVE_GAME_NAME);
-        }
+        library = SaveLibrary.getInstance(this);
+        cloudSync = new CloudSync(library, new SnapshotBackend(getApiClient()));
+        journal = MoveJournal.getInstance(this);
+        metadataCache = MetadataCache.getInstance(this);
+        checkRecovery();
 
         if (isGooglePlayServicesAvailable(this) == ConnectionResult.SUCCESS) {
             Log.d("GGS", "Google Game Service is available!");
@@ -55,6 +73,13 @@ public class HomeActivity extends BaseGameActivity {
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        //Saves may have changed in a game
+        checkSaveGames();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -115,10 +140,47 @@ public class HomeActivity extends BaseGameActivity {
     }
 
     public void continueGame(View view) {
+        final List<SaveMetadata> saves = metadataCache.getAll();
+        if (saves.size() == 1) {
+            startNewGame(saves.get(0).getName());
+            return;
+        } else if (saves.size() > 1) {
+            Collections.sort(saves, new Comparator<SaveMetadata>() {
+                @Override
+                public int compare(SaveMetadata lhs, SaveMetadata rhs) {
+                    return Long.valueOf(rhs.getLastModified()).compareTo(lhs.getLastModified());
+                }
+            });
+            new AlertDialog.Builder(this)
+                    .setTitle(R.string.save_games_title)
+                    .setItems(getSaveGameLabels(saves), new DialogInterface.OnClickListener() {
+                        public void onClick(DialogInterface dialoginterface, int i) {
+                            startNewGame(saves.get(i).getName());
+                        }
+                    })
+                    .show();
+            return;
+        }
         Intent savedGamesIntent = Games.Snapshots.getSelectSnapshotIntent(this.getApiClient(), "Game to continue", false, false, 1);
         startActivityForResult(savedGamesIntent, 0);
     }
 
+    /**
+     * @return Date, size and progress of every save game (size and progress only if known)
+     */
+    private String[] getSaveGameLabels(List<SaveMetadata> saves) {
+        DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+        String[] labels = new String[saves.size()];
+        for (int i = 0; i < saves.size(); ++i) {
+            SaveMetadata save = saves.get(i);
+            labels[i] = dateFormat.format(new Date(save.getLastModified()));
+            if (save.getRows() > 0) {
+                labels[i] += " - " + save.getRows() + "x" + save.getCols() + ", " + save.getProgress() + "%";
+            }
+        }
+        return labels;
+    }
+
     /**
      * After you start the intent to select a snapshot, this callback
      * will be triggered.
@@ -192,40 +254,128 @@ public class HomeActivity extends BaseGameActivity {
         if (logoutButton != null) {
             showLogoutButton();
         }
-        checkSaveGame(SinglePlayerActivity.DEFAULT_SAVE_GAME_NAME);
+        checkSaveGames();
+        //Saves made while signed out
+        cloudSync.requestSync(null);
     }
 
-    private void checkSaveGame(String saveGameName) {
-        Log.i(TAG, "Checking snapshot for " + saveGameName);
+    /**
+     * Shows the cached metadata at once and refreshes it in the background (s. MetadataCache),
+     * the save game itself is only loaded when it is continued
+     */
+    private void checkSaveGames() {
+        Log.i(TAG, "Checking save games");
 
-        final String finalSaveGameName = saveGameName;
+        continueButton.setEnabled(!metadataCache.getAll().isEmpty());
 
-        AsyncTask<Void, Void, Integer> task = new AsyncTask<Void, Void, Integer>() {
+        AsyncTask<Void, Void, Boolean> task = new AsyncTask<Void, Void, Boolean>() {
 
             @Override
-            protected Integer doInBackground(Void... params) {
-                // Open the saved game using its name.
-                Snapshots.OpenSnapshotResult result = Games.Snapshots.open(getApiClient(), finalSaveGameName, true).await();
-                int status = result.getStatus().getStatusCode();
-
-                if (status == GamesStatusCodes.STATUS_OK) {
-                    final Snapshot snapshot = result.getSnapshot();
-                    if (snapshot.readFully().length == 0) {
-                        return GamesStatusCodes.STATUS_GAME_NOT_FOUND;
-                    }
-                }
+            protected Boolean doInBackground(Void... params) {
+                cloudSync.refreshMetadata(metadataCache);
+                return !metadataCache.getAll().isEmpty();
+            }
+
+            @Override
+            protected void onPostExecute(Boolean found) {
+                continueButton.setEnabled(found);
+            }
+        };
+
+        task.execute();
+    }
 
-                return status;
+    /**
+     * Offers to continue a game, which was interrupted by a crash (s. MoveJournal)
+     */
+    private void checkRecovery() {
+        AsyncTask<Void, Void, MoveJournal.Recovery> task = new AsyncTask<Void, Void, MoveJournal.Recovery>() {
+
+            @Override
+            protected MoveJournal.Recovery doInBackground(Void... params) {
+                return journal.read();
             }
 
             @Override
-            protected void onPostExecute(Integer status) {
-                if (status == GamesStatusCodes.STATUS_OK) {
-                    continueButton.setEnabled(true);
+            protected void onPostExecute(MoveJournal.Recovery recovery) {
+                if (recovery == null || isFinishing()) {
+                    return;
+                }
+                String slotName = recovery.getSlotName();
+                if (slotName != null && SaveQueue.getInstance().hasPendingSave(slotName)) {
+                    //The game is being saved, the save clears the journal
+                    Log.d(TAG, "Skipping the recovery of " + slotName + ", it is still saved");
+                    return;
                 }
+                Log.i(TAG, "Found an interrupted game with " + recovery.getMoveCount() + " moves");
+                showRecoveryDialog(recovery);
             }
         };
 
         task.execute();
     }
+
+    private void showRecoveryDialog(final MoveJournal.Recovery recovery) {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.recovery_title)
+                .setMessage(R.string.recovery_message)
+                .setPositiveButton(R.string.continue_game, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int id) {
+                        recoverGame(recovery);
+                    }
+                })
+                .setNegativeButton(R.string.recovery_discard, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int id) {
+                        journal.clear();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Replays and saves the game in the background (s. SaveQueue.submit), then continues it
+     */
+    private void recoverGame(final MoveJournal.Recovery recovery) {
+        //Into its own slot, so a continued game isn't saved twice
+        String slot = recovery.getSlotName();
+        final String slotName = slot != null ? slot : SinglePlayerActivity.createSlotName();
+
+        SaveQueue.getInstance().submit(slotName, new SaveQueue.SaveJob() {
+            @Override
+            public boolean write() {
+                Game game;
+                try {
+                    game = recovery.replay();
+                } catch (RuntimeException ex) {
+                    Log.e(TAG, "Could not recover the game", ex);
+                    game = null;
+                }
+                if (game == null) {
+                    //Nothing to continue
+                    journal.clear();
+                    return false;
+                }
+                if (!library.save(slotName, game.toBytes())) {
+                    return false;
+                }
+                journal.clear();
+                metadataCache.put(SaveMetadata.fromGame(slotName, game, game.createSnapshot()));
+                return true;
+            }
+        }, new SaveQueue.Callback() {
+            @Override
+            public void onSaveFinished(boolean success) {
+                if (!success) {
+                    Log.e(TAG, "Could not recover the game into " + slotName);
+                    return;
+                }
+                cloudSync.requestSync(null);
+                if (!isFinishing()) {
+                    startNewGame(slotName);
+                }
+            }
+        });
+    }
 }
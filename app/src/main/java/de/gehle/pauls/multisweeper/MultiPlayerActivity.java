@@ -2,28 +2,81 @@ package de.gehle.pauls.multisweeper;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 
+import com.google.android.gms.games.multiplayer.Participant;
 import com.google.android.gms.games.multiplayer.realtime.RealTimeMessage;
 import com.google.android.gms.games.multiplayer.realtime.Room;
 
+import org.json.JSONException;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import de.gehle.pauls.multisweeper.components.AbstractMultiPlayerActivity;
+import de.gehle.pauls.multisweeper.components.BoardTouchDispatcher;
+import de.gehle.pauls.multisweeper.components.RaceSession;
+import de.gehle.pauls.multisweeper.components.RevealBuffer;
+import de.gehle.pauls.multisweeper.components.SpectatorStream;
+import de.gehle.pauls.multisweeper.components.SpectatorTree;
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
 import de.gehle.pauls.multisweeper.engine.Game;
 import de.gehle.pauls.multisweeper.engine.GameBoard;
 
-public class MultiPlayerActivity extends AbstractMultiPlayerActivity {
+public class MultiPlayerActivity extends AbstractMultiPlayerActivity implements SpectatorStream.StreamListener {
 
     private static final String TAG = "Multiplayer";
 
     private boolean gameStarted = false;
+
+    /**
+     * Whether more reveal messages of a move follow (s. RevealBuffer.isLastPart)
+     */
+    private boolean revealInProgress = false;
     private ArrayList<int[]> clickBuffer = new ArrayList<int[]>();
     private ArrayList<int[]> longClickBuffer = new ArrayList<int[]>();
 
+    /**
+     * Fog mode: Only the host knows the mine layout, clients just receive the uncovered tiles
+     */
+    private boolean fogMode = false;
+    private RevealBuffer revealBuffer = new RevealBuffer();
+
+    /**
+     * Spectators only watch the game. They get the board syncs and reveals of the host
+     * relayed through a tree of spectators (s. SpectatorTree, SpectatorStream)
+     */
+    private boolean spectating = false;
+    private SpectatorTree spectatorTree = new SpectatorTree();
+    private SpectatorStream spectatorStream = new SpectatorStream(this);
+    private List<String> relayChildren = new ArrayList<String>();
+
+    /**
+     * Race mode: Every player plays an own game on the same gameboard (s. RaceSession)
+     */
+    private boolean raceMode = false;
+    private RaceSession raceSession = null;
+    private byte[] lastRaceProgress = null;
+
+    private final static int RACE_PROGRESS_INTERVAL = 1000;
+    private Handler raceProgressHandler = new Handler();
+
+    private Runnable sendRaceProgress = new Runnable() {
+        public void run() {
+            sendRaceProgress();
+            raceProgressHandler.postDelayed(sendRaceProgress, RACE_PROGRESS_INTERVAL);
+        }
+    };
+
+    private boolean networkStatsShown = false;
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -35,6 +88,10 @@ public class MultiPlayerActivity extends AbstractMultiPlayerActivity {
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.multi_player, menu);
+        menu.findItem(R.id.action_fog).setChecked(fogMode);
+        menu.findItem(R.id.action_race).setChecked(raceMode);
+        menu.findItem(R.id.action_spectate).setChecked(spectating);
+        menu.findItem(R.id.action_network_stats).setChecked(networkStatsShown);
         return true;
     }
 
@@ -43,10 +100,82 @@ public class MultiPlayerActivity extends AbstractMultiPlayerActivity {
         // Handle action bar item clicks here. The action bar will
         // automatically handle clicks on the Home/Up button, so long
         // as you specify a parent activity in AndroidManifest.xml.
-        //int id = item.getItemId();
+        int id = item.getItemId();
+        if (id == R.id.action_fog) {
+            //Only the host's choice is used
+            fogMode = !item.isChecked();
+            item.setChecked(fogMode);
+            return true;
+        } else if (id == R.id.action_race) {
+            //Only the host's choice is used
+            raceMode = !item.isChecked();
+            item.setChecked(raceMode);
+            return true;
+        } else if (id == R.id.action_spectate) {
+            spectating = !item.isChecked();
+            item.setChecked(spectating);
+            return true;
+        } else if (id == R.id.action_network_stats) {
+            item.setChecked(!item.isChecked());
+            showNetworkStats(item.isChecked());
+            return true;
+        } else if (id == R.id.action_export_network_stats) {
+            exportNetworkStats();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onStop() {
+        raceProgressHandler.removeCallbacks(sendRaceProgress);
+        super.onStop();
+    }
+
+    /**
+     * ============================================================
+     * Network stats
+     * ============================================================
+     */
+
+    private void showNetworkStats(boolean show) {
+        networkStatsShown = show;
+        refreshDebugOverlay();
+    }
+
+    @Override
+    protected void appendDebugOverlayText(StringBuilder text) {
+        super.appendDebugOverlayText(text);
+        if (networkStatsShown) {
+            networkMetrics.sample();
+            if (text.length() > 0) {
+                text.append("\n");
+            }
+            text.append(networkMetrics.toOverlayText());
+        }
+    }
+
+    /**
+     * Shares the network metrics as JSON, e.g. by mail
+     */
+    private void exportNetworkStats() {
+        networkMetrics.sample();
+        String json;
+        try {
+            json = networkMetrics.toJson().toString(2);
+        } catch (JSONException ex) {
+            Log.e(TAG, "Could not export network stats", ex);
+            return;
+        }
+        Log.d(TAG, json);
+
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.action_network_stats));
+        intent.putExtra(Intent.EXTRA_TEXT, json);
+        startActivity(Intent.createChooser(intent, getString(R.string.action_export_network_stats)));
+    }
+
     /**
      * ============================================================
      * Menu button binds
@@ -71,45 +200,93 @@ public class MultiPlayerActivity extends AbstractMultiPlayerActivity {
      * ============================================================
      */
 
-    /**
-     * Overrides ClickListeners to send the click also to all other players
-     */
+    @Override
+    protected void startGame(int nrOfPlayers) {
+        super.startGame(nrOfPlayers);
+        if (spectating && !isHost) {
+            Log.d(TAG, "Sending watch request");
+            sendMessage(hostParticipantId, new byte[]{SpectatorStream.ACTION_WATCH});
+        }
+
+        if (raceMode && isHost) {
+            raceSession = RaceSession.create(game.getRows(), game.getCols(), game.getMines());
+            broadcast(raceSession.createStart());
+        }
+        //The start of the race might have been received before
+        if (raceSession != null) {
+            startRace();
+        }
+    }
+
+    @Override
+    public void resetGame(int nrOfPlayers) {
+        if (raceSession == null) {
+            super.resetGame(nrOfPlayers);
+        } else if (isHost) {
+            raceSession = RaceSession.create(game.getRows(), game.getCols(), game.getMines());
+            broadcast(raceSession.createStart());
+            startRace();
+        }
+        //Other players wait for the next race of the host
+    }
+
+    @Override
+    public void onLeftRoom(int i, String s) {
+        raceProgressHandler.removeCallbacks(sendRaceProgress);
+        raceSession = null;
+        super.onLeftRoom(i, s);
+    }
+
     @Override
     protected void initButtons() {
         super.initButtons();
-        for (int i = 0; i < game.getRows(); ++i) {
-            for (int j = 0; j < game.getCols(); ++j) {
-
-                final int curRow = i;
-                final int curCol = j;
-
-                tileButtons[i][j].setOnClickListener(
-                        new View.OnClickListener() {
-                            @Override
-                            public void onClick(View view) {
-                                int id = mParticipant2Id.get(mMyGoogleId);
-                                Log.d(TAG, "My id: " + id);
-                                if (hostParticipantId.equals(mMyGoogleId)) {
-                                    game.playerMove(id, curRow, curCol);
-                                }
-                                sendOnClick(curRow, curCol);
-                            }
-                        }
-                );
-                tileButtons[i][j].setOnLongClickListener(
-                        new View.OnLongClickListener() {
-                            @Override
-                            public boolean onLongClick(View view) {
-                                int id = mParticipant2Id.get(mMyGoogleId);
-                                if (hostParticipantId.equals(mMyGoogleId)) {
-                                    game.playerMoveAlt(id, curRow, curCol);
-                                }
-                                sendLongClick(curRow, curCol);
-                                return true;
-                            }
-                        }
-                );
+        revealBuffer.reset(game.getRows(), game.getCols());
+        revealInProgress = false;
+    }
+
+    /**
+     * Sends the moves also to all other players
+     */
+    @Override
+    protected BoardTouchDispatcher.MoveStrategy createMoveStrategy() {
+        if (raceSession != null) {
+            //Moves stay local in race mode
+            return localMoves;
+        }
+        if (spectating) {
+            //Spectators can't do any moves
+            return null;
+        }
+        return networkMoves;
+    }
+
+    private final BoardTouchDispatcher.MoveStrategy networkMoves = new BoardTouchDispatcher.MoveStrategy() {
+        @Override
+        public void move(int row, int col) {
+            if (isHost) {
+                playOwnMove(false, row, col);
+            }
+            sendOnClick(myId, row, col);
+        }
+
+        @Override
+        public void moveAlt(int row, int col) {
+            if (isHost) {
+                playOwnMove(true, row, col);
             }
+            sendLongClick(myId, row, col);
+        }
+    };
+
+    /**
+     * Remembers the changed tiles on the host to send them to the clients in fog mode
+     * and to the spectators
+     */
+    @Override
+    public void onBoardChanged(BoardChangeSet changes) {
+        super.onBoardChanged(changes);
+        if ((fogMode || !spectatorTree.isEmpty()) && isHost && raceSession == null) {
+            revealBuffer.add(changes);
         }
     }
 
@@ -126,49 +303,362 @@ public class MultiPlayerActivity extends AbstractMultiPlayerActivity {
         return false;
     }
 
+    @Override
+    public void onPeerLeft(Room room, List<String> peers) {
+        super.onPeerLeft(room, peers);
+        removeSpectators(peers);
+    }
+
+    @Override
+    public void onPeersDisconnected(Room room, List<String> peers) {
+        super.onPeersDisconnected(room, peers);
+        removeSpectators(peers);
+    }
+
     /**
      * ============================================================
      * Real time messages
      * ============================================================
      */
 
-    private void sendOnClick(int row, int col) {
-        byte[] message = new byte[3];
+    private void sendOnClick(int playerId, int row, int col) {
+        byte[] message = new byte[4];
 
         message[0] = 'C';
-        message[1] = (byte) row;
-        message[2] = (byte) col;
+        message[1] = (byte) playerId;
+        message[2] = (byte) row;
+        message[3] = (byte) col;
 
-        if (hostParticipantId.equals(mMyGoogleId)) {
-            broadcast(message);
+        if (isHost) {
+            publishMove(playerId, message);
         } else {
             sendMessage(hostParticipantId, message);
+            networkMetrics.onMoveSent(row, col);
         }
         Log.d(TAG, "Sending onClick with " + row + "," + col);
     }
 
-    private void sendLongClick(int row, int col) {
-        byte[] message = new byte[3];
+    private void sendLongClick(int playerId, int row, int col) {
+        byte[] message = new byte[4];
 
         message[0] = 'L';
-        message[1] = (byte) row;
-        message[2] = (byte) col;
+        message[1] = (byte) playerId;
+        message[2] = (byte) row;
+        message[3] = (byte) col;
 
-        if (hostParticipantId.equals(mMyGoogleId)) {
-            broadcast(message);
+        if (isHost) {
+            publishMove(playerId, message);
         } else {
             sendMessage(hostParticipantId, message);
+            networkMetrics.onMoveSent(row, col);
         }
         Log.d(TAG, "Sending onLongClick with " + row + "," + col);
     }
 
+    /**
+     * Sends a move the host has applied to the other players and the spectators.
+     * In fog mode the players get the changed tiles instead of the move.
+     *
+     * @param playerId Player who did the move
+     * @param move     Click or long click message
+     */
+    private void publishMove(int playerId, byte[] move) {
+        List<byte[]> reveals = revealBuffer.flush(playerId, move[2], move[3], game);
+
+        if (fogMode) {
+            for (byte[] reveal : reveals) {
+                broadcast(reveal);
+            }
+        } else {
+            broadcast(move);
+        }
+
+        for (byte[] reveal : reveals) {
+            sendToSpectators(reveal);
+        }
+    }
+
+    /**
+     * ============================================================
+     * Race mode
+     * ============================================================
+     */
+
+    /**
+     * Starts an own game on the gameboard of the race with the first click of the host
+     */
+    private void startRace() {
+        Log.d(TAG, "Starting race");
+        raceProgressHandler.removeCallbacks(sendRaceProgress);
+        lastRaceProgress = null;
+
+        game = raceSession.createGame(this, mParticipantRegistry.size());
+        initButtons();
+        showGameState();
+        game.playerMove(myId, raceSession.getStartRow(), raceSession.getStartCol());
+
+        raceProgressHandler.post(sendRaceProgress);
+    }
+
+    /**
+     * Sends the own progress to the other players, if it has changed
+     */
+    private void sendRaceProgress() {
+        byte[] progress = RaceSession.createProgress(myId, game);
+        if (Arrays.equals(progress, lastRaceProgress)) {
+            return;
+        }
+        lastRaceProgress = progress;
+        broadcast(progress);
+        onRaceProgress(progress);
+    }
+
+    private void onRaceGameStateChanged(Game.GameState gameState) {
+        if (gameState != Game.GameState.GAME_WON && gameState != Game.GameState.GAME_LOST) {
+            return;
+        }
+        raceProgressHandler.removeCallbacks(sendRaceProgress);
+
+        //The host needs the moves to check the win, before it gets the final progress
+        if (gameState == Game.GameState.GAME_WON) {
+            if (isHost) {
+                raceSession.setMoveLog(myId, game.getMoveLog());
+            } else {
+                for (byte[] moves : RaceSession.createMoves(myId, game.getMoveLog())) {
+                    sendMessage(hostParticipantId, moves);
+                }
+            }
+        }
+        sendRaceProgress();
+    }
+
+    private void onRaceProgress(byte[] message) {
+        RaceSession.Progress progress = raceSession.onProgress(message);
+        showRaceProgress();
+
+        if (!isHost || raceSession.isDecided()) {
+            return;
+        }
+
+        //Host: The first player with a valid move log wins
+        if (progress.status == RaceSession.WON) {
+            if (raceSession.verify(progress.playerId)) {
+                finishRace(progress.playerId);
+                return;
+            }
+            Log.d(TAG, "Player " + progress.playerId + " is disqualified");
+            raceSession.disqualify(progress.playerId);
+        }
+        if (progress.status != RaceSession.RUNNING && raceSession.allFinished(getRacePlayerIds())) {
+            finishRace(-1);
+        }
+    }
+
+    /**
+     * Host: Sends the result of the race
+     */
+    private void finishRace(int winnerId) {
+        byte[] verdict = raceSession.createVerdict(winnerId);
+        broadcast(verdict);
+        onRaceVerdict(verdict);
+    }
+
+    private void onRaceVerdict(byte[] message) {
+        raceSession.onVerdict(message);
+        raceProgressHandler.removeCallbacks(sendRaceProgress);
+        showRaceProgress();
+
+        //Winner first, then by uncovered fields
+        List<Placement> placements = new ArrayList<Placement>();
+        final List<Integer> uncovered = new ArrayList<Integer>();
+        for (int playerId : getRacePlayerIds()) {
+            RaceSession.Progress progress = raceSession.getProgress(playerId);
+            Placement placement = new Placement();
+            placement.player = getPlayerName(playerId);
+            placement.score = progress != null && !raceSession.isDisqualified(playerId) ? progress.uncovered : 0;
+            if (playerId == raceSession.getWinnerId()) {
+                placements.add(0, placement);
+            } else {
+                placements.add(placement);
+            }
+        }
+        Collections.sort(placements.subList(raceSession.getWinnerId() >= 0 ? 1 : 0, placements.size()), new Comparator<Placement>() {
+            @Override
+            public int compare(Placement lhs, Placement rhs) {
+                return rhs.score - lhs.score;
+            }
+        });
+        for (int i = 0; i < placements.size(); ++i) {
+            placements.get(i).place = i + 1;
+        }
+        showPlacements(placements.toArray(new Placement[placements.size()]));
+    }
+
+    /**
+     * Shows the uncovered fields of all players in percent
+     */
+    private void showRaceProgress() {
+        if (getActionBar() == null) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int playerId : getRacePlayerIds()) {
+            RaceSession.Progress progress = raceSession.getProgress(playerId);
+            if (progress == null) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append("  ");
+            }
+            text.append(getPlayerName(playerId)).append(": ");
+            if (progress.status == RaceSession.LOST) {
+                text.append("X");
+            } else {
+                text.append(progress.uncovered * 100 / Math.max(raceSession.getUncoverableCount(), 1)).append("%");
+            }
+        }
+        getActionBar().setSubtitle(text);
+    }
+
+    /**
+     * @return Ids of the connected players, without spectators
+     */
+    private List<Integer> getRacePlayerIds() {
+        List<Integer> playerIds = new ArrayList<Integer>();
+        if (mParticipants == null) {
+            return playerIds;
+        }
+        for (Participant p : mParticipants) {
+            if (p.isConnectedToRoom() && !isSpectator(p.getParticipantId())) {
+                playerIds.add(mParticipantRegistry.getId(p.getParticipantId()));
+            }
+        }
+        Collections.sort(playerIds);
+        return playerIds;
+    }
+
+    private String getPlayerName(int playerId) {
+        String participantId = mParticipantRegistry.getParticipantId(playerId);
+        if (mParticipants != null) {
+            for (Participant p : mParticipants) {
+                if (p.getParticipantId().equals(participantId)) {
+                    return p.getDisplayName();
+                }
+            }
+        }
+        return String.valueOf(playerId);
+    }
+
+    /**
+     * ============================================================
+     * Spectators
+     * ============================================================
+     */
+
+    @Override
+    protected boolean isSpectator(String participantId) {
+        return spectatorTree.contains(participantId);
+    }
+
+    /**
+     * Host: Sends a message into the spectator tree
+     */
+    private void sendToSpectators(byte[] message) {
+        if (spectatorTree.isEmpty()) {
+            return;
+        }
+        byte[] delta = spectatorStream.wrap(message);
+        for (String child : spectatorTree.getHostChildren()) {
+            sendMessage(child, delta);
+        }
+    }
+
+    /**
+     * Host: Adds a spectator, or resends the snapshot to it if it has lost a message
+     */
+    private void addSpectator(String participantId) {
+        if (spectatorTree.add(participantId)) {
+            Log.d(TAG, "New spectator " + participantId);
+            updateBroadcastRecipients();
+            sendRelayChildren();
+        }
+        sendSnapshot(participantId);
+    }
+
+    /**
+     * Host: Removes left spectators and closes the gaps in the tree
+     */
+    private void removeSpectators(List<String> participantIds) {
+        if (!isHost) {
+            return;
+        }
+        boolean changed = false;
+        for (String participantId : participantIds) {
+            changed |= spectatorTree.remove(participantId);
+        }
+        if (changed) {
+            updateBroadcastRecipients();
+            sendRelayChildren();
+        }
+    }
+
+    /**
+     * Host: Tells every spectator to which spectators it has to relay the stream
+     */
+    private void sendRelayChildren() {
+        for (String spectator : spectatorTree.getSpectators()) {
+            sendMessage(spectator, SpectatorTree.encodeChildren(spectatorTree.getChildrenOf(spectator), mParticipantRegistry));
+        }
+    }
+
+    /**
+     * Host: Sends the current board to a (new) spectator.
+     * Spectators never get the mine layout, just like clients in fog mode.
+     */
+    private void sendSnapshot(String participantId) {
+        RevealBuffer snapshotBuffer = new RevealBuffer();
+        snapshotBuffer.reset(game.getRows(), game.getCols());
+        snapshotBuffer.addVisible(game);
+        //No player gets points for the snapshot
+        List<byte[]> reveals = snapshotBuffer.flush(game);
+
+        sendMessage(participantId, spectatorStream.wrapSnapshot(createBoardSync(game.exportFoggedGameBoard()), reveals.isEmpty()));
+        for (int i = 0; i < reveals.size(); ++i) {
+            sendMessage(participantId, spectatorStream.wrapSnapshot(reveals.get(i), i == reveals.size() - 1));
+        }
+    }
+
+    /**
+     * Spectator: Applies the messages of the stream in the order the host has sent them
+     */
+    @Override
+    public void onStreamMessage(byte[] message) {
+        if (message[0] == 'B') {
+            syncGameBoard(message);
+        } else if (message[0] == RevealBuffer.ACTION) {
+            RevealBuffer.apply(game, message);
+        }
+    }
+
+    /**
+     * Spectator: Gets a new snapshot, if a relaying spectator has lost a message
+     */
+    @Override
+    public void onStreamBroken() {
+        sendMessage(hostParticipantId, new byte[]{SpectatorStream.ACTION_WATCH});
+    }
+
     /**
      * Received messages
      * <p/>
      * Bytes received ([Byte1][Byte2]...[ByteN]) = Meaning
-     * [C][3][1] = Participant clicked on field (3,1) with 3,1 as array indices, so min would be 0 and max length -1
-     * [L][3][1] = Participant long clicked field (3,1) with 3,1 as array indices, so min would be 0 and max length -1 (Game engine handels if question-mark, flag or removed marks)
-     * [B] [Tile1Data1][Tile1Data2][Tile1Data3][Tile1Data4] [Tile2Data1][Tile2Data2].... = Board-sync
+     * [C][2][3][1] = Player 2 clicked on field (3,1) with 3,1 as array indices, so min would be 0 and max length -1 (Player ids s. ParticipantRegistry)
+     * [L][2][3][1] = Player 2 long clicked field (3,1) with 3,1 as array indices, so min would be 0 and max length -1 (Game engine handels if question-mark, flag or removed marks)
+     * [B] [Tile1Data1][Tile1Data2][Tile1Data3][Tile1Data4] [Tile2Data1][Tile2Data2].... = Board-sync (In fog mode only the dimensions)
+     * [R][PlayerId][GameState] [Row][Col][State][Marker|Mines] [Row][Col].... = Tiles uncovered by the host (Fog mode, s. RevealBuffer)
+     * [W], [E]..., [K]... = Spectator stream (s. SpectatorStream)
+     * [F]... = Spectators to relay the stream to (s. SpectatorTree)
+     * [G]..., [U]..., [M]..., [V]... = Race mode (s. RaceSession)
      *
      * @param realTimeMessage Real time message received
      */
@@ -182,37 +672,64 @@ public class MultiPlayerActivity extends AbstractMultiPlayerActivity {
         char action = (char) buf[0];
 
         if (action == 'B') {
-            byte[] gameBoardData = new byte[buf.length - 1];
-            System.arraycopy(buf, 1, gameBoardData, 0, buf.length - 1);
-            GameBoard syncGameBoard = GameBoard.fromJson(game, new String(gameBoardData));
-
-            gameStarted = true;
-            game.setGameBoard(syncGameBoard);
-
-            if (!clickBuffer.isEmpty()) {
-                for (int[] click : clickBuffer) {
-                    game.playerMove(click[0], click[1], click[2]);
+            syncGameBoard(buf);
+        } else if (action == RevealBuffer.ACTION) {
+            Log.d(TAG, "Received reveals");
+            //The rest of a started move is applied in any case, e.g. after its game over
+            if (gameStarted || revealInProgress) {
+                RevealBuffer.apply(game, buf);
+                revealInProgress = !RevealBuffer.isLastPart(buf);
+                if (!revealInProgress && RevealBuffer.getPlayerId(buf) == myId) {
+                    networkMetrics.onMoveApplied(RevealBuffer.getMoveRow(buf), RevealBuffer.getMoveCol(buf));
                 }
-                clickBuffer.clear();
             }
-            if (!longClickBuffer.isEmpty()) {
-                for (int[] longClick : longClickBuffer) {
-                    game.playerMove(longClick[0], longClick[1], longClick[2]);
+        } else if (action == RaceSession.ACTION_START) {
+            if (!spectating) {
+                raceSession = RaceSession.fromStart(buf);
+                if (mPlaying) {
+                    startRace();
                 }
-                longClickBuffer.clear();
             }
-
-            initButtons();
-            showGameState();
-
-        } else {
-            int row = (int) buf[1];
-            int col = (int) buf[2];
-            int id = mParticipant2Id.get(realTimeMessage.getSenderParticipantId());
+        } else if (action == RaceSession.ACTION_PROGRESS) {
+            if (raceSession != null) {
+                onRaceProgress(buf);
+            }
+        } else if (action == RaceSession.ACTION_MOVES) {
+            if (raceSession != null && isHost) {
+                raceSession.onMoves(buf);
+            }
+        } else if (action == RaceSession.ACTION_VERDICT) {
+            if (raceSession != null) {
+                onRaceVerdict(buf);
+            }
+        } else if (action == SpectatorStream.ACTION_WATCH) {
+            if (isHost) {
+                addSpectator(realTimeMessage.getSenderParticipantId());
+            }
+        } else if (action == SpectatorTree.ACTION_RELAY) {
+            relayChildren = SpectatorTree.decodeChildren(buf, mParticipantRegistry);
+        } else if (action == SpectatorStream.ACTION_DELTA) {
+            if (spectatorStream.receive(buf)) {
+                for (String child : relayChildren) {
+                    sendMessage(child, buf);
+                }
+            }
+            networkMetrics.onReorderBufferChanged(spectatorStream.getBufferedCount());
+        } else if (action == SpectatorStream.ACTION_SNAPSHOT) {
+            spectatorStream.receiveSnapshot(buf);
+            networkMetrics.onReorderBufferChanged(spectatorStream.getBufferedCount());
+        } else if (action == 'C' || action == 'L') {
+            int id = (int) buf[1];
+            int row = (int) buf[2];
+            int col = (int) buf[3];
+
+            if (id == myId) {
+                networkMetrics.onMoveApplied(row, col);
+            }
 
             if (action == 'C') {
                 Log.d(TAG, "Received onClick");
-                if (gameStarted || hostParticipantId.equals(mMyGoogleId)) {
+                if (gameStarted || isHost) {
                     game.playerMove(id, row, col);
                 } else {
                     clickBuffer.add(new int[]{id, row, col});
@@ -227,12 +744,44 @@ public class MultiPlayerActivity extends AbstractMultiPlayerActivity {
             }
 
             //Forwarding messages as host
-            if (hostParticipantId.equals(mMyGoogleId)) {
-                broadcast(buf);
+            if (isHost) {
+                publishMove(id, buf);
             }
         }
     }
 
+    private void syncGameBoard(byte[] buf) {
+        byte[] gameBoardData = new byte[buf.length - 1];
+        System.arraycopy(buf, 1, gameBoardData, 0, buf.length - 1);
+        GameBoard syncGameBoard = GameBoard.fromJson(game, new String(gameBoardData));
+
+        gameStarted = true;
+        game.setGameBoard(syncGameBoard);
+
+        if (!clickBuffer.isEmpty()) {
+            for (int[] click : clickBuffer) {
+                game.playerMove(click[0], click[1], click[2]);
+            }
+            clickBuffer.clear();
+        }
+        if (!longClickBuffer.isEmpty()) {
+            for (int[] longClick : longClickBuffer) {
+                game.playerMove(longClick[0], longClick[1], longClick[2]);
+            }
+            longClickBuffer.clear();
+        }
+
+        initButtons();
+        showGameState();
+    }
+
+    private byte[] createBoardSync(byte[] gameBoardString) {
+        byte[] message = new byte[gameBoardString.length + 1];
+        message[0] = 'B';
+        System.arraycopy(gameBoardString, 0, message, 1, gameBoardString.length);
+        return message;
+    }
+
     /**
      * Broadcast init. of gameboard
      *
@@ -240,6 +789,12 @@ public class MultiPlayerActivity extends AbstractMultiPlayerActivity {
      */
     @Override
     public void onGameStateChanged(Game.GameState gameState) {
+        frameMetrics.onObserverCallback();
+        if (raceSession != null) {
+            //The result of a race is shown, when the host has checked it
+            onRaceGameStateChanged(gameState);
+            return;
+        }
         super.onGameStateChanged(gameState);
 
         /*
@@ -247,15 +802,12 @@ public class MultiPlayerActivity extends AbstractMultiPlayerActivity {
          */
         if (gameState == Game.GameState.RUNNING && !gameStarted) {
             Log.d(TAG, "Sending gameboard sync");
-            byte[] gameBoardString = game.exportGameBoard();
-
-            byte[] message = new byte[gameBoardString.length + 1];
-            message[0] = 'B';
-            System.arraycopy(gameBoardString, 0, message, 1, gameBoardString.length);
+            byte[] message = createBoardSync(fogMode ? game.exportFoggedGameBoard() : game.exportGameBoard());
 
             //Forwarding messages as host
-            if (hostParticipantId.equals(mMyGoogleId)) {
+            if (isHost) {
                 broadcast(message);
+                sendToSpectators(fogMode ? message : createBoardSync(game.exportFoggedGameBoard()));
             }
             gameStarted = true;
         } else if (gameState == Game.GameState.GAME_WON || gameState == Game.GameState.GAME_LOST) {
@@ -1,44 +1,49 @@
 package de.gehle.pauls.multisweeper;
 
 import android.app.AlertDialog;
-import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.TableLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.android.gms.games.Games;
-import com.google.android.gms.games.GamesStatusCodes;
-import com.google.android.gms.games.snapshot.Snapshot;
-import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
-import com.google.android.gms.games.snapshot.Snapshots;
 import com.google.example.games.basegameutils.BaseGameActivity;
 
-import java.util.Calendar;
-import java.util.concurrent.ExecutionException;
-
 import de.gehle.pauls.multisweeper.components.AbstractGameActivity;
+import de.gehle.pauls.multisweeper.components.SaveQueue;
+import de.gehle.pauls.multisweeper.components.ThumbnailGenerator;
+import de.gehle.pauls.multisweeper.engine.BoardSnapshot;
 import de.gehle.pauls.multisweeper.engine.Game;
-import de.gehle.pauls.multisweeper.engine.MinesweeperObserver;
+import de.gehle.pauls.multisweeper.storage.CloudSync;
+import de.gehle.pauls.multisweeper.storage.MetadataCache;
+import de.gehle.pauls.multisweeper.storage.MoveJournal;
+import de.gehle.pauls.multisweeper.storage.SaveMetadata;
+import de.gehle.pauls.multisweeper.storage.SaveLibrary;
+import de.gehle.pauls.multisweeper.storage.SnapshotBackend;
 
 public class SinglePlayerActivity extends AbstractGameActivity {
 
     private static final String TAG = "SINGLE";
 
-    private static final int MAX_SNAPSHOT_RESOLVE_RETRIES = 3;
-    public static final String DEFAULT_SAVE_GAME_NAME = "continueSnapshot";
-
     private String loadSaveGameName = null;
 
+    /**
+     * Slot of the running game in the library, null until a new game is saved
+     */
+    private String slotName = null;
+
+    private ThumbnailGenerator thumbnails;
+    private SaveLibrary library;
+    private CloudSync cloudSync;
+    private MoveJournal journal;
+    private MetadataCache metadataCache;
+
     public SinglePlayerActivity() {
         super(BaseGameActivity.CLIENT_GAMES | BaseGameActivity.CLIENT_SNAPSHOT);
     }
@@ -47,32 +52,27 @@ public class SinglePlayerActivity extends AbstractGameActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        thumbnails = new ThumbnailGenerator(getResources().getColor(R.color.game_board));
+        library = SaveLibrary.getInstance(this);
+        cloudSync = new CloudSync(library, new SnapshotBackend(getApiClient()));
+        //Moves are journaled as they happen, so a crash or kill doesn't lose the game
+        journal = MoveJournal.getInstance(this);
+        metadataCache = MetadataCache.getInstance(this);
+
         Intent intent = getIntent();
         String saveGameName = intent.getStringExtra(Game.KEY_SAVEGAME);
         if (saveGameName != null) {
-            if (isSignedIn()) {
-                loadSaveGame(saveGameName);
-            } else {
-                //To see the game, but not yet started or init
-                bindGameLayout();
-                loadSaveGameName = saveGameName;
-            }
+            loadSaveGame(saveGameName);
         } else {
             startGame(1);
         }
     }
 
     @Override
-    protected void onStop() {
-        //TODO:Uncomment cause: Better way to save games also on crash but: Donno y, but ggs is disconnected here before saving. But super onStop is called later... :/
-        /*
-        if (game.isRunning() && loggedIn) {
-            Log.d(TAG, "Saving game!");
-            saveSnapshot(new SaveGame(game));
-        }
-        loggedIn = false;
-        */
-        super.onStop();
+    protected void onDestroy() {
+        //The journal is kept until the game is saved (s. saveSnapshot), has ended or is discarded
+        thumbnails.shutdown();
+        super.onDestroy();
     }
 
     @Override
@@ -94,23 +94,40 @@ public class SinglePlayerActivity extends AbstractGameActivity {
             //Also false if game ended
             if (game.isRunning()) {
                 Log.d(TAG, "Saving game!");
-                ProgressDialog progress = new ProgressDialog(this);
-                progress.setTitle("Loading");
-                progress.setMessage("Wait while loading...");
-                progress.show();
-
+                //Saved in the background, leaving doesn't wait for it
                 saveSnapshot(game);
-
-                progress.dismiss();
             }
         }
 
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void startGame(int nrOfPlayers) {
+        super.startGame(nrOfPlayers);
+        slotName = null;
+        journal.begin(game);
+    }
+
+    @Override
+    public void resetGame(int nrOfPlayers) {
+        super.resetGame(nrOfPlayers);
+        slotName = null;
+        journal.begin(game);
+    }
+
+    @Override
+    protected void playOwnMove(boolean altMove, int row, int col) {
+        super.playOwnMove(altMove, row, col);
+        journal.onMoves(game);
+    }
+
     @Override
     public void onSignInFailed() {
-        startGame(1);
+        //A save game from the device is already running
+        if (game == null) {
+            startGame(1);
+        }
     }
 
     @Override
@@ -118,15 +135,20 @@ public class SinglePlayerActivity extends AbstractGameActivity {
         if (loadSaveGameName != null) {
             loadSaveGame(loadSaveGameName);
             loadSaveGameName = null;
+        } else {
+            //Saves made while signed out
+            cloudSync.requestSync(null);
         }
     }
 
     @Override
     public void onGameStateChanged(Game.GameState gameState) {
+        frameMetrics.onObserverCallback();
         if (gameState != Game.GameState.GAME_WON && gameState != Game.GameState.GAME_LOST) {
             return;
         }
         Log.d(TAG, "Game finished");
+        archiveGame();
 
 
         AlertDialog.Builder dialogBuilder = new AlertDialog.Builder(this);
@@ -168,163 +190,140 @@ public class SinglePlayerActivity extends AbstractGameActivity {
      */
 
     /**
-     * Prepares saving Snapshot to the user's synchronized storage, conditionally resolves errors,
-     * and stores the Snapshot.
+     * Saves the game on the device in the background (s. SaveQueue.submit), then updates the cloud (s. CloudSync)
      */
     void saveSnapshot(Game saveGame) {
-        final byte[] saveGameData = saveGame.toBytes();
         Log.d(TAG, saveGame.toString());
+        if (slotName == null) {
+            slotName = createSlotName();
+            //A recovery goes into the same slot
+            journal.setSlotName(slotName);
+        }
+        final String name = slotName;
+        final byte[] data = saveGame.toBytes();
+        BoardSnapshot snapshot = saveGame.createSnapshot();
+        final SaveMetadata metadata = SaveMetadata.fromGame(name, saveGame, snapshot);
+        cloudSync.setCover(name, thumbnails.render(snapshot));
 
-        AsyncTask<Void, Void, Snapshots.OpenSnapshotResult> task = new AsyncTask<Void, Void, Snapshots.OpenSnapshotResult>() {
+        SaveQueue.getInstance().submit(name, new SaveQueue.SaveJob() {
             @Override
-            protected Snapshots.OpenSnapshotResult doInBackground(Void... params) {
-                return Games.Snapshots.open(getApiClient(), DEFAULT_SAVE_GAME_NAME, true).await();
+            public boolean write() {
+                if (!library.save(name, data)) {
+                    return false;
+                }
+                journal.clear();
+                metadataCache.put(metadata);
+                return true;
             }
-
+        }, new SaveQueue.Callback() {
             @Override
-            protected void onPostExecute(Snapshots.OpenSnapshotResult result) {
-                Snapshot toWrite = processSnapshotOpenResult(result, 0);
-
-                writeSnapshot(toWrite, saveGameData);
+            public void onSaveFinished(boolean success) {
+                if (!success) {
+                    Toast.makeText(getApplicationContext(), R.string.save_failed, Toast.LENGTH_LONG).show();
+                    return;
+                }
+                cloudSync.requestSync(new SaveQueue.Callback() {
+                    @Override
+                    public void onSaveFinished(boolean success) {
+                        //Not synced saves are uploaded by the next sync
+                        Log.d(TAG, "Game synced: " + success);
+                    }
+                });
             }
-        };
-
-        try {
-            task.execute().get();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }
+        });
     }
 
     /**
-     * Generates metadata, takes a screenshot, and performs the write operation for saving a
-     * snapshot.
+     * Loads the game from the device, only from the cloud if the device doesn't know it
      */
-    private void writeSnapshot(Snapshot snapshot, byte[] saveGame) {
-        // Set the data payload for the snapshot.
-        snapshot.writeBytes(saveGame);
-
-        // Save the snapshot.
-        SnapshotMetadataChange.Builder metadataChangeBuilder = new SnapshotMetadataChange.Builder()
-                .setDescription("Modified data at: " + Calendar.getInstance().getTime());
+    private void loadSaveGame(String saveGameName) {
+        Log.i(TAG, "Loading save game " + saveGameName);
 
-        Bitmap screenshot = getScreenShot();
-        if (screenshot != null) {
-            metadataChangeBuilder.setCoverImage(screenshot);
+        byte[] data = library.load(saveGameName);
+        if (data != null) {
+            continueSaveGame(saveGameName, data);
+            return;
         }
-
-        SnapshotMetadataChange metadataChange = metadataChangeBuilder.build();
-        Games.Snapshots.commitAndClose(getApiClient(), snapshot, metadataChange);
-    }
-
-    /**
-     * Gets a screenshot to use with snapshots. Note that in practice you probably do not want to
-     * use this approach because tablet screen sizes can become pretty large and because the image
-     * will contain any UI and layout surrounding the area of interest.
-     */
-    Bitmap getScreenShot() {
-        TableLayout root = (TableLayout) findViewById(R.id.MineField);
-        Bitmap coverImage;
-        try {
-            coverImage = Bitmap.createBitmap(root.getWidth(), root.getHeight(), Bitmap.Config.ARGB_8888);
-            Canvas c = new Canvas(coverImage);
-            root.layout(0, 0, root.getLayoutParams().width, root.getLayoutParams().height);
-            root.draw(c);
-        } catch (Exception ex) {
-            Log.d(TAG, "Failed to create a screenshot", ex);
-            coverImage = null;
-        } finally {
-            root.setDrawingCacheEnabled(false);
+        if (!isSignedIn()) {
+            //To see the game, but not yet started or init
+            bindGameLayout();
+            loadSaveGameName = saveGameName;
+            return;
         }
 
-        return coverImage;
-    }
+        final String finalSaveGameName = saveGameName;
 
-    /**
-     * Conflict resolution for when Snapshots are opened.
-     *
-     * @param result The open snapshot result to resolve on open.
-     * @return The opened Snapshot on success; otherwise, returns null.
-     */
-    Snapshot processSnapshotOpenResult(Snapshots.OpenSnapshotResult result, int retryCount) {
-        Snapshot mResolvedSnapshot;
-        retryCount++;
-        int status = result.getStatus().getStatusCode();
-
-        Log.d(TAG, "Save Result status: " + status);
-
-        if (status == GamesStatusCodes.STATUS_OK) {
-            return result.getSnapshot();
-        } else if (status == GamesStatusCodes.STATUS_SNAPSHOT_CONTENTS_UNAVAILABLE) {
-            return result.getSnapshot();
-        } else if (status == GamesStatusCodes.STATUS_SNAPSHOT_CONFLICT) {
-            Snapshot snapshot = result.getSnapshot();
-            Snapshot conflictSnapshot = result.getConflictingSnapshot();
-
-            // Resolve between conflicts by selecting the newest of the conflicting snapshots.
-            mResolvedSnapshot = snapshot;
-
-            if (snapshot.getMetadata().getLastModifiedTimestamp() <
-                    conflictSnapshot.getMetadata().getLastModifiedTimestamp()) {
-                mResolvedSnapshot = conflictSnapshot;
-            }
+        AsyncTask<Void, Void, byte[]> task = new AsyncTask<Void, Void, byte[]>() {
 
-            Snapshots.OpenSnapshotResult resolveResult = Games.Snapshots.resolveConflict(getApiClient(), result.getConflictId(), mResolvedSnapshot).await();
+            @Override
+            protected byte[] doInBackground(Void... params) {
+                return cloudSync.restore(finalSaveGameName);
+            }
 
-            if (retryCount < MAX_SNAPSHOT_RESOLVE_RETRIES) {
-                return processSnapshotOpenResult(resolveResult, retryCount);
-            } else {
-                String message = "Could not resolve snapshot conflicts";
-                Log.e(TAG, message);
-                Toast.makeText(getBaseContext(), message, Toast.LENGTH_LONG);
+            @Override
+            protected void onPostExecute(byte[] data) {
+                if (data != null) {
+                    continueSaveGame(finalSaveGameName, data);
+                } else {
+                    Log.e(TAG, "Error while loading " + finalSaveGameName);
+                    startGame(1);
+                }
             }
+        };
 
-        }
-        // Fail, return null.
-        return null;
+        task.execute();
     }
 
-    private void loadSaveGame(String saveGameName) {
-        Log.i(TAG, "Opening snapshot " + saveGameName);
-
-        final String finalSaveGameName = saveGameName;
-        final MinesweeperObserver observer = this;
+    /**
+     * The game is saved into its slot again (s. saveSnapshot)
+     */
+    private void continueSaveGame(String saveGameName, byte[] data) {
+        bindGameLayout();
+        game = new Game(this, data);
+        slotName = saveGameName;
+        journal.begin(game, data, saveGameName);
+
+        Log.d("Multisweeper", "Game loaded!");
+        initButtons();
+        showGameState();
+    }
 
-        AsyncTask<Void, Void, Integer> task = new AsyncTask<Void, Void, Integer>() {
+    /**
+     * A finished game is moved from its slot into the archive of the library in the background
+     * (s. SaveQueue.submit), then the deletion goes to the cloud (s. CloudSync)
+     */
+    private void archiveGame() {
+        final byte[] data = game.toBytes();
+        final String name = slotName;
+        slotName = null;
 
+        SaveQueue.getInstance().submit(name, new SaveQueue.SaveJob() {
             @Override
-            protected Integer doInBackground(Void... params) {
-                // Open the saved game using its name.
-                Snapshots.OpenSnapshotResult result = Games.Snapshots.open(getApiClient(), finalSaveGameName, true).await();
-                int status = result.getStatus().getStatusCode();
-
-                if (status == GamesStatusCodes.STATUS_OK) {
-                    final Snapshot snapshot = result.getSnapshot();
-                    Games.Snapshots.delete(getApiClient(), snapshot.getMetadata());
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            // Read the byte content of the saved game.
-                            game = new Game(observer, snapshot.readFully());
-                        }
-                    });
-                } else {
-                    Log.e(TAG, "Error while loading: " + status);
+            public boolean write() {
+                boolean archived = library.archive(data) != null;
+                if (!archived) {
+                    Log.e(TAG, "Could not archive the game");
                 }
-
-                return status;
+                if (name != null) {
+                    library.delete(name);
+                    metadataCache.remove(name);
+                }
+                return archived;
             }
-
+        }, new SaveQueue.Callback() {
             @Override
-            protected void onPostExecute(Integer status) {
-                Log.d("Multisweeper", "Game loaded!");
-                initButtons();
-                showGameState();
+            public void onSaveFinished(boolean success) {
+                if (name != null) {
+                    cloudSync.requestSync(null);
+                }
             }
-        };
+        });
+    }
 
-        task.execute();
+    /**
+     * @return Name for a new slot in the library, also used as name of the snapshot
+     */
+    public static String createSlotName() {
+        return "save-" + System.currentTimeMillis();
     }
 }
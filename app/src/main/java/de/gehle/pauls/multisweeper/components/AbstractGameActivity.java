@@ -3,10 +3,11 @@ package de.gehle.pauls.multisweeper.components;
 import android.content.Intent;
 import android.content.res.TypedArray;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.TableLayout;
-import android.widget.TableRow;
 import android.widget.TextView;
 
 import com.google.example.games.basegameutils.BaseGameActivity;
@@ -14,9 +15,9 @@ import com.google.example.games.basegameutils.BaseGameActivity;
 import java.util.Arrays;
 
 import de.gehle.pauls.multisweeper.R;
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
 import de.gehle.pauls.multisweeper.engine.Game;
 import de.gehle.pauls.multisweeper.engine.MinesweeperObserver;
-import de.gehle.pauls.multisweeper.engine.Tile;
 
 /**
  * @author Andi
@@ -31,10 +32,53 @@ public abstract class AbstractGameActivity extends BaseGameActivity implements M
     private static final int minDifficulty = 0;
 
     protected Game game;
-    private TableLayout mineField;
+    protected MineFieldView mineField;
+    private MiniMapView miniMap;
+    private BoardTouchDispatcher touchDispatcher;
     private TextView timerText;
     private TextView mineCountText;
-    protected TileButton[][] tileButtons;
+    private TextView debugOverlay;
+
+    protected FrameMetrics frameMetrics = new FrameMetrics();
+    private boolean frameStatsShown = false;
+
+    private final static int DEBUG_OVERLAY_INTERVAL = 1000;
+    private Handler debugOverlayHandler = new Handler();
+
+    /**
+     * Timer and mine counter are shown once for all updates of a pass of the message loop
+     */
+    private Handler counterHandler = new Handler();
+    private boolean countersScheduled = false;
+    private int shownSeconds = -1;
+    private int pendingSeconds = 0;
+    private int shownMines = Integer.MIN_VALUE;
+    private int pendingMines = 0;
+
+    private Runnable showCounters = new Runnable() {
+        public void run() {
+            countersScheduled = false;
+            if (timerText != null && pendingSeconds != shownSeconds) {
+                shownSeconds = pendingSeconds;
+                String time = String.valueOf(shownSeconds);
+                timerText.setText(prependZeros(3 - time.length(), time));
+            }
+            if (mineCountText != null && pendingMines != shownMines) {
+                shownMines = pendingMines;
+                String mines = String.valueOf(shownMines);
+                mineCountText.setText(prependZeros(3 - mines.length(), mines));
+            }
+        }
+    };
+
+    private Runnable updateDebugOverlay = new Runnable() {
+        public void run() {
+            StringBuilder text = new StringBuilder();
+            appendDebugOverlayText(text);
+            setDebugOverlayText(text);
+            debugOverlayHandler.postDelayed(updateDebugOverlay, DEBUG_OVERLAY_INTERVAL);
+        }
+    };
 
     /**
      * Player ID in multiplayer mode
@@ -55,6 +99,60 @@ public abstract class AbstractGameActivity extends BaseGameActivity implements M
         super.onCreate(savedInstanceState);
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem frameStats = menu.findItem(R.id.action_frame_stats);
+        if (frameStats != null) {
+            frameStats.setChecked(frameStatsShown);
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_frame_stats) {
+            item.setChecked(!item.isChecked());
+            frameStatsShown = item.isChecked();
+            refreshDebugOverlay();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (game != null) {
+            game.resume();
+        }
+    }
+
+    /**
+     * No timer callbacks, while the game isn't visible
+     */
+    @Override
+    protected void onPause() {
+        if (game != null) {
+            game.pause();
+        }
+        super.onPause();
+    }
+
+    /**
+     * Restarts the overlay updates stopped in onStop
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        refreshDebugOverlay();
+    }
+
+    @Override
+    protected void onStop() {
+        debugOverlayHandler.removeCallbacks(updateDebugOverlay);
+        super.onStop();
+    }
+
     /**
      * @param difficultyIndex 0 for easy, 1 for medium, 2 for hard
      */
@@ -83,9 +181,59 @@ public abstract class AbstractGameActivity extends BaseGameActivity implements M
      */
     protected void bindGameLayout() {
         setContentView(R.layout.game);
-        mineField = (TableLayout) findViewById(R.id.MineField);
+        mineField = (MineFieldView) findViewById(R.id.MineField);
+        mineField.setFrameMetrics(frameMetrics);
+        miniMap = (MiniMapView) findViewById(R.id.MiniMap);
         timerText = (TextView) findViewById(R.id.Timer);
         mineCountText = (TextView) findViewById(R.id.MineCount);
+        //New views show the next values in any case
+        shownSeconds = -1;
+        shownMines = Integer.MIN_VALUE;
+        debugOverlay = (TextView) findViewById(R.id.DebugOverlay);
+    }
+
+    /**
+     * ============================================================
+     * Debug overlay
+     * ============================================================
+     */
+
+    protected boolean isDebugOverlayVisible() {
+        return debugOverlay != null && debugOverlay.getVisibility() == View.VISIBLE;
+    }
+
+    protected void setDebugOverlayVisible(boolean visible) {
+        if (debugOverlay != null) {
+            debugOverlay.setVisibility(visible ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    protected void setDebugOverlayText(CharSequence text) {
+        if (debugOverlay != null) {
+            debugOverlay.setText(text);
+        }
+    }
+
+    /**
+     * Shows the overlay as long as there is something to show and updates it once per second
+     */
+    protected void refreshDebugOverlay() {
+        debugOverlayHandler.removeCallbacks(updateDebugOverlay);
+        StringBuilder text = new StringBuilder();
+        appendDebugOverlayText(text);
+        setDebugOverlayVisible(text.length() > 0);
+        if (text.length() > 0) {
+            debugOverlayHandler.post(updateDebugOverlay);
+        }
+    }
+
+    /**
+     * Adds the enabled stats to the overlay text
+     */
+    protected void appendDebugOverlayText(StringBuilder text) {
+        if (frameStatsShown) {
+            text.append(frameMetrics.toOverlayText());
+        }
     }
 
     /**
@@ -108,67 +256,83 @@ public abstract class AbstractGameActivity extends BaseGameActivity implements M
     }
 
     /**
-     * Fills tableLayout with buttons and sets its click- and long-click-Listeners
+     * Shows the gameboard of the game and routes the gestures on the minefield to the moves (s. createMoveStrategy)
      */
     protected void initButtons() {
-        mineField.removeAllViews();
-        tileButtons = new TileButton[game.getRows()][game.getCols()];
-        for (int i = 0; i < game.getRows(); ++i) {
-            TableRow tableRow = new TableRow(this);
-            tableRow.setLayoutParams(
-                    new TableRow.LayoutParams(
-                            tileWH * tilePadding * game.getCols(),
-                            tileWH * tilePadding)
-            );
-            for (int j = 0; j < game.getCols(); ++j) {
-                tileButtons[i][j] = new TileButton(this);
-                tableRow.addView(tileButtons[i][j]);
-
-                final int curRow = i;
-                final int curCol = j;
-
-                tileButtons[i][j].setOnClickListener(
-                        new View.OnClickListener() {
-                            @Override
-                            public void onClick(View view) {
-                                game.playerMove(myId, curRow, curCol);
-                            }
-                        }
-                );
-                tileButtons[i][j].setOnLongClickListener(
-                        new View.OnLongClickListener() {
-                            @Override
-                            public boolean onLongClick(View view) {
-                                game.playerMoveAlt(myId, curRow, curCol);
-                                return true;
-                            }
-                        }
-                );
-
-                tileButtons[i][j].setLayoutParams(
-                        new TableRow.LayoutParams(tileWH * tilePadding, tileWH * tilePadding)
-                );
-                tileButtons[i][j].setPadding(tilePadding, tilePadding, tilePadding, tilePadding);
+        miniMap.setGame(game);
+        miniMap.setOnTileSelectedListener(new MiniMapView.OnTileSelectedListener() {
+            @Override
+            public void onTileSelected(int row, int col) {
+                mineField.centerOn(row, col);
+            }
+        });
+        mineField.setOnViewportChangeListener(new MineFieldView.OnViewportChangeListener() {
+            @Override
+            public void onViewportChanged(float left, float top, float right, float bottom) {
+                miniMap.setViewport(left, top, right, bottom);
             }
-            mineField.addView(tableRow,
-                    new TableLayout.LayoutParams(
-                            tileWH * tilePadding * game.getCols(),
-                            tileWH * tilePadding
-                    )
-            );
+        });
+        mineField.setTileSize(tileWH * tilePadding, tilePadding);
+        mineField.setGame(game);
+
+        BoardTouchDispatcher.MoveStrategy strategy = createMoveStrategy();
+        if (strategy == null) {
+            mineField.setOnTileGestureListener(null);
+            return;
+        }
+        if (touchDispatcher == null) {
+            touchDispatcher = new BoardTouchDispatcher(strategy);
+        } else {
+            touchDispatcher.setMoveStrategy(strategy);
         }
+        mineField.setOnTileGestureListener(touchDispatcher);
     }
 
     /**
-     * Update all tileButtons according to their (new) states.
-     * Used for example for game over
+     * @return Where the moves of the own player go, null if the player can't do any moves
      */
-    protected void showGameState() {
-        for (int i = 0; i < game.getRows(); ++i) {
-            for (int j = 0; j < game.getCols(); ++j) {
-                updateTile(i, j);
-            }
+    protected BoardTouchDispatcher.MoveStrategy createMoveStrategy() {
+        return localMoves;
+    }
+
+    /**
+     * Moves are played directly on the own game
+     */
+    protected final BoardTouchDispatcher.MoveStrategy localMoves = new BoardTouchDispatcher.MoveStrategy() {
+        @Override
+        public void move(int row, int col) {
+            playOwnMove(false, row, col);
+        }
+
+        @Override
+        public void moveAlt(int row, int col) {
+            playOwnMove(true, row, col);
+        }
+    };
+
+    /**
+     * Plays a move of the own player on the game and measures it for the frame stats
+     *
+     * @param altMove Whether it's a long press (s. Game.playerMoveAlt)
+     */
+    protected void playOwnMove(boolean altMove, int row, int col) {
+        int callbacks = frameMetrics.onMoveStarted();
+        long start = System.nanoTime();
+        if (altMove) {
+            game.playerMoveAlt(myId, row, col);
+        } else {
+            game.playerMove(myId, row, col);
         }
+        frameMetrics.onMoveFinished(System.nanoTime() - start, callbacks);
+    }
+
+    /**
+     * Redraws all tiles according to their (new) states.
+     * Used for example after a new gameboard was loaded
+     */
+    protected void showGameState() {
+        mineField.refresh();
+        miniMap.setGame(game);
     }
 
     /**
@@ -211,14 +375,10 @@ public abstract class AbstractGameActivity extends BaseGameActivity implements M
      */
 
     @Override
-    public void updateTile(int row, int col) {
-        Tile tile = game.getTile(row, col);
-        Tile.TileState state = tile.getState();
-        tileButtons[row][col].setPlayerId(tile.getPlayerId());
-        tileButtons[row][col].setState(state);
-        if (state == Tile.TileState.NUMBER) {
-            tileButtons[row][col].setSurroundingMines(tile.getNrSurroundingMines());
-        }
+    public void onBoardChanged(BoardChangeSet changes) {
+        frameMetrics.onObserverCallback();
+        mineField.onBoardChanged(changes);
+        miniMap.onBoardChanged(changes);
     }
 
     private String prependZeros(int nrOfZeros, String word) {
@@ -230,25 +390,28 @@ public abstract class AbstractGameActivity extends BaseGameActivity implements M
 
     @Override
     public void updateTimer(int secondsPassed) {
-        if (timerText != null) {
-            String time = String.valueOf(secondsPassed);
-            time = prependZeros(3 - time.length(), time);
-
-            timerText.setText(time);
-        }
+        frameMetrics.onObserverCallback();
+        pendingSeconds = secondsPassed;
+        scheduleCounters();
     }
 
     @Override
     public void updateCounter(int mineCounter) {
-        if (mineCountText != null) {
-            String mines = String.valueOf(mineCounter);
-            mines = prependZeros(3 - mines.length(), mines);
-            mineCountText.setText(mines);
+        frameMetrics.onObserverCallback();
+        pendingMines = mineCounter;
+        scheduleCounters();
+    }
+
+    private void scheduleCounters() {
+        if (!countersScheduled) {
+            countersScheduled = true;
+            counterHandler.post(showCounters);
         }
     }
 
     @Override
     public void onGameStateChanged(Game.GameState gameState) {
+        frameMetrics.onObserverCallback();
 
     }
 }
@@ -5,6 +5,7 @@ import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.WindowManager;
 
@@ -17,13 +18,13 @@ import com.google.android.gms.games.multiplayer.OnInvitationReceivedListener;
 import com.google.android.gms.games.multiplayer.Participant;
 import com.google.android.gms.games.multiplayer.realtime.RealTimeMessage;
 import com.google.android.gms.games.multiplayer.realtime.RealTimeMessageReceivedListener;
+import com.google.android.gms.games.multiplayer.realtime.RealTimeMultiplayer;
 import com.google.android.gms.games.multiplayer.realtime.Room;
 import com.google.android.gms.games.multiplayer.realtime.RoomConfig;
 import com.google.android.gms.games.multiplayer.realtime.RoomStatusUpdateListener;
 import com.google.android.gms.games.multiplayer.realtime.RoomUpdateListener;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 import de.gehle.pauls.multisweeper.R;
@@ -32,7 +33,7 @@ import de.gehle.pauls.multisweeper.engine.Game;
 /**
  * Implements a general functionality of handling connection errors, storing playerId, fetching roomIds, etc.
  */
-public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity implements OnInvitationReceivedListener, RoomUpdateListener, RealTimeMessageReceivedListener, RoomStatusUpdateListener {
+public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity implements OnInvitationReceivedListener, RoomUpdateListener, RealTimeMessageReceivedListener, RoomStatusUpdateListener, RealTimeMultiplayer.ReliableMessageSentCallback {
 
     private static final String TAG = "AbstractMultiPlayerActivity";
 
@@ -47,6 +48,11 @@ public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity i
     final static int MIN_OTHER_PLAYERS = 1;
     final static int MAX_OTHER_PLAYERS = 2;
 
+    /**
+     * Interval to measure the round trip times to the other participants
+     */
+    final static int PING_INTERVAL = 2000;
+
     private String mRoomId;
     private boolean mWaitingRoomFinishedFromCode = false;
     private String mIncomingInvitationId;
@@ -55,10 +61,32 @@ public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity i
 
     // The participants in the currently active game
     protected ArrayList<Participant> mParticipants = null;
-    protected HashMap<String, Integer> mParticipant2Id = null;
+    protected ParticipantRegistry mParticipantRegistry = new ParticipantRegistry();
     protected String mMyGoogleId = null;
 
     protected String hostParticipantId = null;
+    protected boolean isHost = false;
+
+    /**
+     * Other players, which get broadcasts (s. updateBroadcastRecipients)
+     */
+    private ArrayList<String> broadcastRecipients = new ArrayList<String>();
+
+    protected NetworkMetrics networkMetrics = new NetworkMetrics();
+    private Handler pingHandler = new Handler();
+
+    private Runnable sendPings = new Runnable() {
+        public void run() {
+            if (mParticipants != null) {
+                for (Participant p : mParticipants) {
+                    if (!p.getParticipantId().equals(mMyGoogleId)) {
+                        sendMessage(p.getParticipantId(), networkMetrics.createPing());
+                    }
+                }
+            }
+            pingHandler.postDelayed(sendPings, PING_INTERVAL);
+        }
+    };
 
 
     /**
@@ -202,6 +230,7 @@ public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity i
      * <p/>
      * Bytes received ([Byte1][Byte2]...[ByteN]) = Meaning
      * [S] = Starting game (E.g. Creator of the room has clicked on play in the waiting room, so we should also switch to game screen and leave the waiting room)
+     * [P]..., [O]... = Ping and its answer (s. NetworkMetrics)
      *
      * @param realTimeMessage Real time message received
      */
@@ -210,6 +239,7 @@ public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity i
         byte[] buf = realTimeMessage.getMessageData();
         //String sender = realTimeMessage.getSenderParticipantId();
         Log.d(TAG, "Message received: " + (char) buf[0]);
+        networkMetrics.onMessageReceived(buf);
 
         char action = (char) buf[0];
 
@@ -218,19 +248,52 @@ public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity i
             mWaitingRoomFinishedFromCode = true;
             finishActivity(RC_WAITING_ROOM);
             startGame(mParticipants.size());
+        } else if (action == NetworkMetrics.ACTION_PING) {
+            sendMessage(realTimeMessage.getSenderParticipantId(), NetworkMetrics.createPong(buf));
+        } else if (action == NetworkMetrics.ACTION_PONG) {
+            networkMetrics.onPong(realTimeMessage.getSenderParticipantId(), buf);
         }
     }
 
+    /**
+     * Sends a message to all other players (Spectators get the game by their own stream)
+     */
     protected void broadcast(byte[] message) {
+        for (String participantId : broadcastRecipients) {
+            sendMessage(participantId, message);
+        }
+    }
+
+    /**
+     * Has to be called if the participants or spectators have changed
+     */
+    protected void updateBroadcastRecipients() {
+        broadcastRecipients.clear();
+        if (mParticipants == null) {
+            return;
+        }
         for (Participant p : mParticipants) {
-            if (!p.getParticipantId().equals(mMyGoogleId)) {
-                sendMessage(p.getParticipantId(), message);
+            if (!p.getParticipantId().equals(mMyGoogleId) && !isSpectator(p.getParticipantId())) {
+                broadcastRecipients.add(p.getParticipantId());
             }
         }
     }
 
+    /**
+     * @return Whether the participant only watches the game
+     */
+    protected boolean isSpectator(String participantId) {
+        return false;
+    }
+
     protected void sendMessage(String id, byte[] message) {
-        Games.RealTimeMultiplayer.sendReliableMessage(getApiClient(), null, message, mRoomId, id);
+        networkMetrics.onMessageSent(id, message, true);
+        Games.RealTimeMultiplayer.sendReliableMessage(getApiClient(), this, message, mRoomId, id);
+    }
+
+    @Override
+    public void onRealTimeMessageSent(int statusCode, int tokenId, String recipientParticipantId) {
+        networkMetrics.onMessageDelivered(recipientParticipantId);
     }
 
     /**
@@ -250,8 +313,20 @@ public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity i
 
     @Override
     protected void startGame(int nrOfPlayers) {
+        mParticipantRegistry.assign(mRoomId, mParticipants, mMyGoogleId);
+        onParticipantsUpdated();
+
         super.startGame(nrOfPlayers);
         mPlaying = true;
+
+        pingHandler.removeCallbacks(sendPings);
+        pingHandler.post(sendPings);
+    }
+
+    @Override
+    protected void onStop() {
+        pingHandler.removeCallbacks(sendPings);
+        super.onStop();
     }
 
     /**
@@ -368,6 +443,7 @@ public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity i
 
     @Override
     public void onLeftRoom(int i, String s) {
+        pingHandler.removeCallbacks(sendPings);
         updateRoom(null);
     }
 
@@ -498,34 +574,30 @@ public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity i
         }*/
     }
 
+    /**
+     * Player ids are assigned when the game starts (s. ParticipantRegistry),
+     * participants joining later get the next free ids.
+     */
     private void onParticipantsUpdated() {
-        if (mParticipant2Id == null) {
-            mParticipant2Id = new HashMap<String, Integer>(mParticipants.size());
-        }
-        mParticipant2Id.clear();
-        int id = 1;
-        myId = 0;
-        for (Participant p : mParticipants) {
-            if (p.getParticipantId().equals(mMyGoogleId)) {
-                mParticipant2Id.put(p.getParticipantId(), myId);
-            } else {
-                mParticipant2Id.put(p.getParticipantId(), id++);
-            }
+        if (mRoomId == null) {
+            mParticipantRegistry.clear();
+        } else {
+            mParticipantRegistry.update(mRoomId, mParticipants, mMyGoogleId);
         }
+        myId = mParticipantRegistry.getMyId();
         onHostParticipantIdUpdate();
+        updateBroadcastRecipients();
     }
 
     private void onHostParticipantIdUpdate() {
-        if (mParticipants.size() > 0) {
-            /**
-             * TODO: Better strategy
-             * Let first participant choose a random host and broadcast the result to the others.
-             */
-            hostParticipantId = mParticipants.get(0).getParticipantId();
-        } else {
-            hostParticipantId = null;
-        }
-        Log.d(TAG, "MyId is " + mMyGoogleId);
+        /**
+         * TODO: Better strategy
+         * Let first participant choose a random host and broadcast the result to the others.
+         */
+        hostParticipantId = mParticipantRegistry.getHostParticipantId();
+        isHost = mParticipantRegistry.isHost();
+
+        Log.d(TAG, "MyId is " + mMyGoogleId + " (" + myId + ")");
         Log.d(TAG, "HostId is " + hostParticipantId);
     }
 
@@ -541,11 +613,19 @@ public abstract class AbstractMultiPlayerActivity extends AbstractGameActivity i
         for (Participant p : mParticipants) {
             Placement placement = new Placement();
             placement.player = p.getDisplayName();
-            placement.place = game.getPlace(mParticipant2Id.get(p.getParticipantId()));
-            placement.score = game.getScore(mParticipant2Id.get(p.getParticipantId()));
+            placement.place = game.getPlace(mParticipantRegistry.getId(p.getParticipantId()));
+            placement.score = game.getScore(mParticipantRegistry.getId(p.getParticipantId()));
             placements[placement.place - 1] = placement;
         }
+        showPlacements(placements);
+    }
 
+    /**
+     * Shows the result of a game
+     *
+     * @param placements Players ordered by their place
+     */
+    protected void showPlacements(Placement[] placements) {
         PlacementBoardAdapter adapter = new PlacementBoardAdapter(this,
                 R.layout.placement, placements);
         AlertDialog.Builder dialogBuilder = new AlertDialog.Builder(this);
@@ -0,0 +1,409 @@
+package de.gehle.pauls.multisweeper.components;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
+import de.gehle.pauls.multisweeper.engine.BoardSnapshot;
+import de.gehle.pauls.multisweeper.engine.Tile;
+
+/**
+ * Draws the gameboard on its own thread
+ * <p/>
+ * The renderer never touches the game: It keeps its own copy of the packed tiles,
+ * which starts with a BoardSnapshot and is updated with the BoardChangeSets of the game.
+ * Change sets older than the snapshot are skipped (s. version).
+ * The UI thread only hands over the snapshots, change sets and viewport and requests a frame,
+ * so neither input nor game logic waits for drawing.
+ * <p/>
+ * The thread sleeps until a frame is requested and then draws all visible tiles at once.
+ * Big openings are shown ring by ring over several frames (s. RevealScheduler).
+ *
+ * @author Andi
+ */
+public class BoardRenderer implements Runnable {
+
+    private static final String TAG = "BoardRenderer";
+
+    /**
+     * Below this size of a tile on the screen (in pixels) the gameboard is drawn as pixels
+     */
+    public final static float LOD_TILE_SIZE = 12;
+
+    /**
+     * Older touches didn't change anything (e.g. a tap on a number)
+     */
+    private final static long MAX_TOUCH_TO_PIXEL = 2000;
+
+    /**
+     * ============================================================
+     * Shared with the UI thread (guarded by lock)
+     * ============================================================
+     */
+
+    private final Object lock = new Object();
+
+    private Thread thread;
+    private SurfaceHolder holder;
+    private boolean running = false;
+    private boolean frameRequested = false;
+
+    private BoardSnapshot pendingSnapshot;
+    private List<BoardChangeSet> pendingChanges = new ArrayList<BoardChangeSet>();
+
+    private TileAtlas atlas;
+    private int backgroundColor;
+    private float scale = 1;
+    private float viewX = 0;
+    private float viewY = 0;
+    private int width = 0;
+    private int height = 0;
+    private int pressedRow = -1;
+    private int pressedCol = -1;
+
+    private FrameMetrics metrics;
+
+    /**
+     * Time of the last touch, whose result isn't drawn yet (s. SystemClock.uptimeMillis), 0 if none
+     */
+    private long inputTime = 0;
+
+    /**
+     * ============================================================
+     * Only used while drawing
+     * ============================================================
+     */
+
+    private long version = -1;
+    private int rows = 0;
+    private int cols = 0;
+    private short[] tiles;
+
+    /**
+     * Level of detail: One pixel per tile
+     */
+    private Bitmap lodBitmap;
+    private int[] lodRow;
+    private final Paint lodPaint = new Paint();
+    private final RectF lodBounds = new RectF();
+
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect atlasSrc = new Rect();
+    private final Rect tileDst = new Rect();
+
+    /**
+     * Touch shown by the current frame
+     */
+    private long frameInputTime = 0;
+
+    private List<BoardChangeSet> appliedChanges = new ArrayList<BoardChangeSet>();
+    private final RevealScheduler revealScheduler = new RevealScheduler();
+    private final RevealScheduler.TileSink tileSink = new RevealScheduler.TileSink() {
+        @Override
+        public void setTile(int cell, short value) {
+            BoardRenderer.this.setTile(cell, value);
+        }
+    };
+
+    public BoardRenderer(TileAtlas atlas, int backgroundColor) {
+        this.atlas = atlas;
+        this.backgroundColor = backgroundColor;
+    }
+
+    /**
+     * Starts the render thread, e.g. when the surface was created
+     */
+    public void start(SurfaceHolder holder) {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            this.holder = holder;
+            running = true;
+            frameRequested = true;
+            thread = new Thread(this, TAG);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the render thread and waits for it, because the surface mustn't be used afterwards
+     */
+    public void stop() {
+        Thread stopped;
+        synchronized (lock) {
+            running = false;
+            lock.notify();
+            stopped = thread;
+            thread = null;
+        }
+        if (stopped == null) {
+            return;
+        }
+        try {
+            stopped.join();
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Interrupted while stopping", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Replaces all tiles, e.g. for a new gameboard. Older change sets are dropped.
+     */
+    public void setSnapshot(BoardSnapshot snapshot) {
+        synchronized (lock) {
+            pendingSnapshot = snapshot;
+            pendingChanges.clear();
+            requestFrameLocked();
+        }
+    }
+
+    public void addChanges(BoardChangeSet changes) {
+        synchronized (lock) {
+            pendingChanges.add(changes);
+            requestFrameLocked();
+        }
+    }
+
+    public void setAtlas(TileAtlas atlas) {
+        synchronized (lock) {
+            this.atlas = atlas;
+            requestFrameLocked();
+        }
+    }
+
+    /**
+     * @param scale Zoom factor
+     * @param viewX Position of the left side of the view on the zoomed gameboard
+     * @param viewY Position of the top side of the view on the zoomed gameboard
+     */
+    public void setViewport(float scale, float viewX, float viewY, int width, int height) {
+        synchronized (lock) {
+            this.scale = scale;
+            this.viewX = viewX;
+            this.viewY = viewY;
+            this.width = width;
+            this.height = height;
+            requestFrameLocked();
+        }
+    }
+
+    /**
+     * @param metrics Gets the times of all frames (or null)
+     */
+    public void setFrameMetrics(FrameMetrics metrics) {
+        synchronized (lock) {
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * A touch, which should change the gameboard: The first frame with changes afterwards is its result
+     *
+     * @param time Time of the touch (s. SystemClock.uptimeMillis)
+     */
+    public void onInput(long time) {
+        synchronized (lock) {
+            inputTime = time;
+        }
+    }
+
+    public void setPressedTile(int row, int col) {
+        synchronized (lock) {
+            pressedRow = row;
+            pressedCol = col;
+            requestFrameLocked();
+        }
+    }
+
+    private void requestFrameLocked() {
+        frameRequested = true;
+        lock.notify();
+    }
+
+    /**
+     * ============================================================
+     * Render thread
+     * ============================================================
+     */
+
+    @Override
+    public void run() {
+        while (true) {
+            SurfaceHolder surface;
+            FrameMetrics frameMetrics;
+            synchronized (lock) {
+                while (running && !frameRequested) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                frameRequested = false;
+                surface = holder;
+                frameMetrics = metrics;
+            }
+
+            long start = System.nanoTime();
+            Canvas canvas = surface.lockCanvas();
+            if (canvas == null) {
+                continue;
+            }
+            try {
+                drawFrame(canvas);
+            } finally {
+                surface.unlockCanvasAndPost(canvas);
+            }
+
+            if (frameMetrics != null) {
+                frameMetrics.onFrame(start, System.nanoTime());
+                long touchToPixel = SystemClock.uptimeMillis() - frameInputTime;
+                if (frameInputTime != 0 && touchToPixel < MAX_TOUCH_TO_PIXEL) {
+                    frameMetrics.onTouchToPixel(touchToPixel);
+                }
+            }
+
+            if (revealScheduler.isRunning()) {
+                synchronized (lock) {
+                    frameRequested = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes over the pending state and draws the visible part of the gameboard
+     */
+    private void drawFrame(Canvas canvas) {
+        TileAtlas atlas;
+        float scale, viewX, viewY;
+        int width, height, pressedRow, pressedCol;
+        BoardSnapshot snapshot;
+        List<BoardChangeSet> changeSets;
+        synchronized (lock) {
+            snapshot = pendingSnapshot;
+            pendingSnapshot = null;
+            //Swaps the lists, so the game can go on while the changes are applied
+            changeSets = pendingChanges;
+            pendingChanges = appliedChanges;
+            appliedChanges = changeSets;
+
+            frameInputTime = 0;
+            if (snapshot != null || !changeSets.isEmpty()) {
+                frameInputTime = inputTime;
+                inputTime = 0;
+            }
+
+            atlas = this.atlas;
+            scale = this.scale;
+            viewX = this.viewX;
+            viewY = this.viewY;
+            width = this.width;
+            height = this.height;
+            pressedRow = this.pressedRow;
+            pressedCol = this.pressedCol;
+        }
+
+        if (snapshot != null) {
+            applySnapshot(snapshot);
+        }
+        for (BoardChangeSet changes : changeSets) {
+            applyChanges(changes);
+        }
+        changeSets.clear();
+        revealScheduler.step(tileSink);
+
+        canvas.drawColor(backgroundColor);
+        if (tiles == null) {
+            return;
+        }
+
+        int tileSize = atlas.getTileSize();
+        float size = tileSize * scale;
+        if (size < LOD_TILE_SIZE) {
+            lodBounds.set(-viewX, -viewY, cols * size - viewX, rows * size - viewY);
+            canvas.drawBitmap(lodBitmap, null, lodBounds, lodPaint);
+            return;
+        }
+
+        int firstRow = Math.max((int) (viewY / size), 0);
+        int lastRow = Math.min((int) ((height - 1 + viewY) / size), rows - 1);
+        int firstCol = Math.max((int) (viewX / size), 0);
+        int lastCol = Math.min((int) ((width - 1 + viewX) / size), cols - 1);
+
+        Paint paint = scale != 1 ? tilePaint : null;
+        canvas.save();
+        canvas.translate(-viewX, -viewY);
+        canvas.scale(scale, scale);
+        for (int row = firstRow; row <= lastRow; ++row) {
+            for (int col = firstCol; col <= lastCol; ++col) {
+                short tile = tiles[row * cols + col];
+                int slot = TileAtlas.getSlot(Tile.getState(tile), Tile.getPlayerId(tile), Tile.getNrSurroundingMines(tile),
+                        row == pressedRow && col == pressedCol);
+                atlas.draw(canvas, slot, col * tileSize, row * tileSize, paint, atlasSrc, tileDst);
+            }
+        }
+        canvas.restore();
+    }
+
+    private void applySnapshot(BoardSnapshot snapshot) {
+        if (lodBitmap == null || snapshot.getRows() != rows || snapshot.getCols() != cols) {
+            rows = snapshot.getRows();
+            cols = snapshot.getCols();
+            lodBitmap = Bitmap.createBitmap(cols, rows, Bitmap.Config.RGB_565);
+            lodRow = new int[cols];
+        }
+        version = snapshot.getVersion();
+        tiles = snapshot.copyTiles();
+        revealScheduler.reset(rows, cols);
+
+        for (int row = 0; row < rows; ++row) {
+            for (int col = 0; col < cols; ++col) {
+                lodRow[col] = getLodColor(tiles[row * cols + col]);
+            }
+            lodBitmap.setPixels(lodRow, 0, cols, 0, row, cols, 1);
+        }
+    }
+
+    private void applyChanges(BoardChangeSet changes) {
+        if (tiles == null || changes.getVersion() <= version) {
+            return;
+        }
+        version = changes.getVersion();
+
+        if (revealScheduler.schedule(changes, tileSink)) {
+            return;
+        }
+        for (int i = 0; i < changes.size(); ++i) {
+            int cell = changes.getCell(i);
+            if (cell >= tiles.length) {
+                continue;
+            }
+            revealScheduler.cancel(cell);
+            setTile(cell, changes.getValue(i));
+        }
+    }
+
+    private void setTile(int cell, short value) {
+        tiles[cell] = value;
+        lodBitmap.setPixel(cell % cols, cell / cols, getLodColor(value));
+    }
+
+    private static int getLodColor(short tile) {
+        return TileAtlas.getLodColor(Tile.getState(tile), Tile.getNrSurroundingMines(tile));
+    }
+}
@@ -0,0 +1,46 @@
+package de.gehle.pauls.multisweeper.components;
+
+/**
+ * Turns the gestures on the minefield into moves
+ * <p/>
+ * Tap = Uncover a tile, Long press = Swap the marker of a tile,
+ * Tap on a number = Chord: The engine uncovers all unmarked neighbours, if enough flags
+ * are around, so a chord is one move for every player and the move log (s. MoveLog).
+ * <p/>
+ * Where the moves go is decided by a MoveStrategy, e.g. directly to the game or to the host.
+ * One dispatcher serves the whole gameboard.
+ *
+ * @author Andi
+ */
+public class BoardTouchDispatcher implements MineFieldView.OnTileGestureListener {
+
+    /**
+     * Executes the moves of the own player
+     */
+    public interface MoveStrategy {
+        public void move(int row, int col);
+
+        public void moveAlt(int row, int col);
+    }
+
+    private MoveStrategy strategy;
+
+    public BoardTouchDispatcher(MoveStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public void setMoveStrategy(MoveStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    @Override
+    public void onTileTap(int row, int col) {
+        //On a number the engine chords (s. GameBoard.uncoverTile)
+        strategy.move(row, col);
+    }
+
+    @Override
+    public void onTileLongPress(int row, int col) {
+        strategy.moveAlt(row, col);
+    }
+}
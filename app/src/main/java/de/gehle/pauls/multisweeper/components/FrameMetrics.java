@@ -0,0 +1,136 @@
+package de.gehle.pauls.multisweeper.components;
+
+import java.util.Arrays;
+
+/**
+ * Collects timings of the game screen for the debug overlay
+ * <p/>
+ * - Draw time of a frame on the render thread and the time between following frames
+ * - Time the engine needs for a move of the own player (s. Game.playerMove, Game.playerMoveAlt)
+ * - Observer callbacks per move (s. MinesweeperObserver)
+ * - Time from a touch until the frame showing its result is posted
+ * <p/>
+ * Percentiles are taken over the last samples only, so they follow changes while playing.
+ * Frames are recorded by the render thread, all other values by the UI thread.
+ *
+ * @author Andi
+ */
+public class FrameMetrics {
+
+    /**
+     * Frames further apart belong to different animations
+     */
+    private final static long MAX_FRAME_INTERVAL_NANOS = 250 * 1000000L;
+
+    private final Rolling drawTimes = new Rolling(240);
+    private final Rolling frameIntervals = new Rolling(240);
+    private final Rolling moveTimes = new Rolling(60);
+    private final Rolling callbacks = new Rolling(60);
+    private final Rolling touchToPixel = new Rolling(60);
+
+    private long lastFrameNanos = 0;
+    private int observerCallbacks = 0;
+
+    /**
+     * Render thread: A frame was drawn
+     *
+     * @param startNanos Start of the frame (s. System.nanoTime)
+     * @param endNanos   When the frame was posted
+     */
+    public synchronized void onFrame(long startNanos, long endNanos) {
+        drawTimes.add((endNanos - startNanos) / 1000);
+        if (lastFrameNanos != 0 && endNanos - lastFrameNanos < MAX_FRAME_INTERVAL_NANOS) {
+            frameIntervals.add((endNanos - lastFrameNanos) / 1000);
+        }
+        lastFrameNanos = endNanos;
+    }
+
+    /**
+     * Render thread: The result of a touch is on the screen
+     */
+    public synchronized void onTouchToPixel(long millis) {
+        touchToPixel.add(millis * 1000);
+    }
+
+    public synchronized void onObserverCallback() {
+        ++observerCallbacks;
+    }
+
+    /**
+     * @return Marker for onMoveFinished
+     */
+    public synchronized int onMoveStarted() {
+        return observerCallbacks;
+    }
+
+    /**
+     * @param callbacksBefore Value of onMoveStarted
+     */
+    public synchronized void onMoveFinished(long nanos, int callbacksBefore) {
+        moveTimes.add(nanos / 1000);
+        callbacks.add(observerCallbacks - callbacksBefore);
+    }
+
+    public synchronized String toOverlayText() {
+        return "Draw: " + drawTimes.toMillisText() + "\n"
+                + "Frame: " + frameIntervals.toMillisText() + "\n"
+                + "Engine: " + moveTimes.toMillisText() + "\n"
+                + "Callbacks: " + callbacks.toText() + "\n"
+                + "Touch>px: " + touchToPixel.toMillisText();
+    }
+
+    /**
+     * The last values (in microseconds for times) in a ring buffer
+     */
+    private static class Rolling {
+
+        private final long[] values;
+        private final long[] sorted;
+        private int next = 0;
+        private int size = 0;
+
+        Rolling(int capacity) {
+            values = new long[capacity];
+            sorted = new long[capacity];
+        }
+
+        void add(long value) {
+            values[next] = value;
+            next = (next + 1) % values.length;
+            size = Math.min(size + 1, values.length);
+        }
+
+        /**
+         * Sorts a copy, so only call it for the output
+         */
+        private void sort() {
+            System.arraycopy(values, 0, sorted, 0, size);
+            Arrays.sort(sorted, 0, size);
+        }
+
+        private long percentile(double percentile) {
+            return sorted[Math.min((int) (size * percentile), size - 1)];
+        }
+
+        String toText() {
+            if (size == 0) {
+                return "-";
+            }
+            sort();
+            return "p50=" + percentile(0.5) + " p95=" + percentile(0.95) + " max=" + sorted[size - 1];
+        }
+
+        String toMillisText() {
+            if (size == 0) {
+                return "-";
+            }
+            sort();
+            return "p50=" + toMillis(percentile(0.5)) + " p95=" + toMillis(percentile(0.95))
+                    + " max=" + toMillis(sorted[size - 1]) + "ms";
+        }
+
+        private static String toMillis(long micros) {
+            return String.valueOf(Math.round(micros / 100.0) / 10.0);
+        }
+    }
+}
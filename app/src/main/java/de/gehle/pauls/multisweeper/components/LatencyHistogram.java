@@ -0,0 +1,94 @@
+package de.gehle.pauls.multisweeper.components;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Histogram of latencies in milliseconds with power of two buckets
+ * <p/>
+ * Bucket 0 counts values below 1ms, bucket i values from 2^(i-1) to 2^i - 1 ms
+ * and the last bucket everything above.
+ *
+ * @author Andi
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 16;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    public void add(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        ++buckets[Math.min(bucket, BUCKETS - 1)];
+        ++count;
+        sum += millis;
+        max = Math.max(max, millis);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getAverage() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    /**
+     * @param percentile E.g. 0.95 for the 95th percentile
+     * @return Upper bound of the bucket containing the percentile
+     */
+    public long getPercentile(double percentile) {
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return i == BUCKETS - 1 ? max : Math.min((1L << i) - 1, max);
+            }
+        }
+        return 0;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + count + " avg=" + getAverage() + " p50=" + getPercentile(0.5)
+                + " p95=" + getPercentile(0.95) + " max=" + max;
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("count", count);
+        obj.put("avg", getAverage());
+        obj.put("p50", getPercentile(0.5));
+        obj.put("p95", getPercentile(0.95));
+        obj.put("p99", getPercentile(0.99));
+        obj.put("max", max);
+
+        JSONArray jsonBuckets = new JSONArray();
+        for (long bucket : buckets) {
+            jsonBuckets.put(bucket);
+        }
+        obj.put("buckets", jsonBuckets);
+        return obj;
+    }
+}
@@ -0,0 +1,449 @@
+package de.gehle.pauls.multisweeper.components;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.GestureDetector;
+import android.view.HapticFeedbackConstants;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.widget.OverScroller;
+
+import de.gehle.pauls.multisweeper.R;
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
+import de.gehle.pauls.multisweeper.engine.Game;
+
+/**
+ * Draws the whole gameboard on one canvas
+ * <p/>
+ * Replaces a button per tile: The tiles are drawn directly from the state of the game
+ * by copying their images from a TileAtlas and touches are mapped to the tile below them
+ * (s. OnTileGestureListener).
+ * <p/>
+ * The view is a viewport on the gameboard, which can be zoomed by pinching and moved by dragging.
+ * Only the visible tiles are drawn. Zoomed far out, every tile is a single pixel of a small bitmap
+ * (Level of detail), so drawing a frame depends on the size of the screen and not the size of the gameboard.
+ * <p/>
+ * Drawing is done by a BoardRenderer on its own thread, which gets snapshots and change sets of the game.
+ * The view itself only handles the touches and the viewport on the UI thread.
+ *
+ * @author Andi
+ */
+public class MineFieldView extends SurfaceView implements SurfaceHolder.Callback {
+
+    public interface OnTileGestureListener {
+        public void onTileTap(int row, int col);
+
+        public void onTileLongPress(int row, int col);
+    }
+
+    public interface OnViewportChangeListener {
+        /**
+         * Visible part of the gameboard in tiles (right and bottom exclusive)
+         */
+        public void onViewportChanged(float left, float top, float right, float bottom);
+    }
+
+    private final static float MAX_SCALE = 3;
+
+    private Game game;
+    private OnTileGestureListener listener;
+    private OnViewportChangeListener viewportListener;
+
+    private int tileSize = 64;
+    private int tilePadding = 2;
+
+    private int pressedRow = -1;
+    private int pressedCol = -1;
+
+    /**
+     * Viewport: Zoom factor and position of the top left corner of the view on the zoomed gameboard
+     */
+    private float scale = 1;
+    private float viewX = 0;
+    private float viewY = 0;
+
+    private BoardRenderer renderer;
+
+    /**
+     * Moves the viewport while flinging, once per frame
+     */
+    private boolean frameScheduled = false;
+    private Object frameCallback;
+
+    private Runnable onFrame = new Runnable() {
+        @Override
+        public void run() {
+            frameScheduled = false;
+            if (scroller.computeScrollOffset()) {
+                moveViewport(scroller.getCurrX(), scroller.getCurrY());
+                scheduleFrame();
+            }
+        }
+    };
+
+    private GestureDetector gestureDetector;
+    private ScaleGestureDetector scaleDetector;
+    private OverScroller scroller;
+    private boolean scaling = false;
+
+    public MineFieldView(Context context) {
+        this(context, null);
+    }
+
+    public MineFieldView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        renderer = new BoardRenderer(TileAtlas.get(getResources(), tileSize, tilePadding),
+                getResources().getColor(R.color.game_board));
+        getHolder().addCallback(this);
+        scroller = new OverScroller(context);
+
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                scroller.forceFinished(true);
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapUp(MotionEvent e) {
+                int row = getRowAt(e.getY());
+                int col = getColAt(e.getX());
+                if (listener != null && !scaling && row >= 0 && col >= 0) {
+                    renderer.onInput(e.getEventTime());
+                    listener.onTileTap(row, col);
+                }
+                return true;
+            }
+
+            @Override
+            public void onLongPress(MotionEvent e) {
+                int row = getRowAt(e.getY());
+                int col = getColAt(e.getX());
+                setPressedTile(-1, -1);
+                if (listener != null && !scaling && row >= 0 && col >= 0) {
+                    performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+                    renderer.onInput(SystemClock.uptimeMillis());
+                    listener.onTileLongPress(row, col);
+                }
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                setPressedTile(-1, -1);
+                moveViewport(viewX + distanceX, viewY + distanceY);
+                return true;
+            }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                int maxX = (int) Math.max(getBoardWidth() - getWidth(), 0);
+                int maxY = (int) Math.max(getBoardHeight() - getHeight(), 0);
+                scroller.fling((int) viewX, (int) viewY, (int) -velocityX, (int) -velocityY, 0, maxX, 0, maxY);
+                scheduleFrame();
+                return true;
+            }
+        });
+        //Every tap is a tap, also quick ones one after another (a double tap isn't a gesture of its own)
+        gestureDetector.setOnDoubleTapListener(null);
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScaleBegin(ScaleGestureDetector detector) {
+                scaling = true;
+                setPressedTile(-1, -1);
+                return true;
+            }
+
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoom(scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Shows the gameboard of a (new) game
+     */
+    public void setGame(Game game) {
+        boolean sizeChanged = this.game == null
+                || this.game.getRows() != game.getRows() || this.game.getCols() != game.getCols();
+        this.game = game;
+        pressedRow = -1;
+        pressedCol = -1;
+
+        if (sizeChanged) {
+            scale = 1;
+            viewX = 0;
+            viewY = 0;
+        }
+        renderer.setPressedTile(-1, -1);
+        renderer.setSnapshot(game.createSnapshot());
+
+        requestLayout();
+        zoom(scale, 0, 0);
+    }
+
+    /**
+     * @param listener null, if the tiles shouldn't be clickable (e.g. spectators)
+     */
+    public void setOnTileGestureListener(OnTileGestureListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param metrics Gets the frame times and the time from touches to the frames showing their result (or null)
+     */
+    public void setFrameMetrics(FrameMetrics metrics) {
+        renderer.setFrameMetrics(metrics);
+    }
+
+    /**
+     * E.g. for a minimap (s. MiniMapView)
+     */
+    public void setOnViewportChangeListener(OnViewportChangeListener viewportListener) {
+        this.viewportListener = viewportListener;
+    }
+
+    /**
+     * @param tileSize    Width and height of a tile in pixels (not zoomed)
+     * @param tilePadding Space between the tiles in pixels
+     */
+    public void setTileSize(int tileSize, int tilePadding) {
+        this.tileSize = tileSize;
+        this.tilePadding = tilePadding;
+        renderer.setAtlas(TileAtlas.get(getResources(), tileSize, tilePadding));
+        requestLayout();
+    }
+
+    /**
+     * Redraws all tiles, e.g. after a new gameboard was loaded
+     */
+    public void refresh() {
+        if (game != null) {
+            renderer.setSnapshot(game.createSnapshot());
+        }
+    }
+
+    /**
+     * Hands the changed tiles over to the renderer
+     */
+    public void onBoardChanged(BoardChangeSet changes) {
+        if (game != null && !changes.isEmpty()) {
+            renderer.addChanges(changes);
+        }
+    }
+
+    private void scheduleFrame() {
+        if (frameScheduled) {
+            return;
+        }
+        frameScheduled = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (frameCallback == null) {
+                frameCallback = FrameCallback.create(onFrame);
+            }
+            FrameCallback.post(frameCallback);
+        } else {
+            post(onFrame);
+        }
+    }
+
+    /**
+     * ============================================================
+     * Surface
+     * ============================================================
+     */
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        renderer.start(holder);
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        renderer.setViewport(scale, viewX, viewY, width, height);
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        renderer.stop();
+    }
+
+    /**
+     * ============================================================
+     * Viewport
+     * ============================================================
+     */
+
+    private float getBoardWidth() {
+        return game != null ? game.getCols() * tileSize * scale : 0;
+    }
+
+    private float getBoardHeight() {
+        return game != null ? game.getRows() * tileSize * scale : 0;
+    }
+
+    /**
+     * @return Smallest zoom factor: The whole gameboard fits into the view
+     */
+    private float getMinScale() {
+        if (game == null || getWidth() == 0 || getHeight() == 0) {
+            return 1;
+        }
+        float fit = Math.min(getWidth() / (float) (game.getCols() * tileSize), getHeight() / (float) (game.getRows() * tileSize));
+        return Math.min(fit, 1);
+    }
+
+    /**
+     * Zooms, so that the point (focusX, focusY) of the view stays at the same tile
+     */
+    private void zoom(float newScale, float focusX, float focusY) {
+        newScale = Math.max(getMinScale(), Math.min(newScale, MAX_SCALE));
+        float factor = newScale / scale;
+        scale = newScale;
+        moveViewport((viewX + focusX) * factor - focusX, (viewY + focusY) * factor - focusY);
+    }
+
+    /**
+     * Moves the viewport, but not beyond the gameboard. A gameboard smaller than the view is centered.
+     */
+    private void moveViewport(float x, float y) {
+        float boardWidth = getBoardWidth();
+        float boardHeight = getBoardHeight();
+
+        if (boardWidth <= getWidth()) {
+            viewX = -(getWidth() - boardWidth) / 2;
+        } else {
+            viewX = Math.max(0, Math.min(x, boardWidth - getWidth()));
+        }
+        if (boardHeight <= getHeight()) {
+            viewY = -(getHeight() - boardHeight) / 2;
+        } else {
+            viewY = Math.max(0, Math.min(y, boardHeight - getHeight()));
+        }
+        renderer.setViewport(scale, viewX, viewY, getWidth(), getHeight());
+
+        if (viewportListener != null && getWidth() > 0 && getHeight() > 0) {
+            float size = tileSize * scale;
+            viewportListener.onViewportChanged(viewX / size, viewY / size, (viewX + getWidth()) / size, (viewY + getHeight()) / size);
+        }
+    }
+
+    /**
+     * Centers the viewport on a tile
+     */
+    public void centerOn(int row, int col) {
+        float size = tileSize * scale;
+        moveViewport((col + 0.5f) * size - getWidth() / 2, (row + 0.5f) * size - getHeight() / 2);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        zoom(scale, 0, 0);
+    }
+
+    /**
+     * ============================================================
+     * Layout
+     * ============================================================
+     */
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = game != null ? game.getCols() * tileSize : 0;
+        int height = game != null ? game.getRows() * tileSize : 0;
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+    }
+
+    /**
+     * ============================================================
+     * Touch
+     * ============================================================
+     */
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (game == null) {
+            return super.onTouchEvent(event);
+        }
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                scaling = false;
+                if (listener != null) {
+                    setPressedTile(getRowAt(event.getY()), getColAt(event.getX()));
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                setPressedTile(-1, -1);
+                break;
+        }
+
+        scaleDetector.onTouchEvent(event);
+        if (!scaleDetector.isInProgress()) {
+            gestureDetector.onTouchEvent(event);
+        }
+        return true;
+    }
+
+    private void setPressedTile(int row, int col) {
+        if (row == pressedRow && col == pressedCol) {
+            return;
+        }
+        pressedRow = row;
+        pressedCol = col;
+        renderer.setPressedTile(row, col);
+    }
+
+    /**
+     * @return Row at the y coordinate of the view or -1 if outside of the gameboard
+     */
+    private int getRowAt(float y) {
+        float boardY = y + viewY;
+        int row = (int) (boardY / (tileSize * scale));
+        return boardY >= 0 && row < game.getRows() ? row : -1;
+    }
+
+    /**
+     * @return Col at the x coordinate of the view or -1 if outside of the gameboard
+     */
+    private int getColAt(float x) {
+        float boardX = x + viewX;
+        int col = (int) (boardX / (tileSize * scale));
+        return boardX >= 0 && col < game.getCols() ? col : -1;
+    }
+
+    /**
+     * Choreographer is only available since Jelly Bean, so it is only loaded there
+     */
+    private static class FrameCallback implements Choreographer.FrameCallback {
+
+        private final Runnable runnable;
+
+        private FrameCallback(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        static Object create(Runnable runnable) {
+            return new FrameCallback(runnable);
+        }
+
+        static void post(Object frameCallback) {
+            Choreographer.getInstance().postFrameCallback((FrameCallback) frameCallback);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            runnable.run();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package de.gehle.pauls.multisweeper.components;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import de.gehle.pauls.multisweeper.R;
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
+import de.gehle.pauls.multisweeper.engine.BoardSnapshot;
+import de.gehle.pauls.multisweeper.engine.Game;
+import de.gehle.pauls.multisweeper.engine.Tile;
+
+/**
+ * Overview of the whole gameboard with the visible part of the minefield
+ * <p/>
+ * Keeps a bitmap with one pixel per tile (s. TileAtlas.getLodColor). Only the pixels of changed tiles
+ * are updated (s. onBoardChanged), the bitmap is just scaled to the size of the view while drawing.
+ * Touching the map moves the minefield to the touched tile (s. OnTileSelectedListener).
+ * The map hides itself, while the whole gameboard is visible anyway.
+ *
+ * @author Andi
+ */
+public class MiniMapView extends View {
+
+    public interface OnTileSelectedListener {
+        public void onTileSelected(int row, int col);
+    }
+
+    private int rows = 0;
+    private int cols = 0;
+    private Bitmap bitmap;
+    private OnTileSelectedListener listener;
+
+    /**
+     * Visible part of the minefield in tiles
+     */
+    private final RectF viewport = new RectF();
+
+    /**
+     * Where the gameboard is drawn in the view
+     */
+    private final RectF mapBounds = new RectF();
+    private final RectF viewportBounds = new RectF();
+
+    private final Paint bitmapPaint = new Paint();
+    private final Paint viewportPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    public MiniMapView(Context context) {
+        this(context, null);
+    }
+
+    public MiniMapView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        setBackgroundColor(getResources().getColor(R.color.minimap_background));
+        viewportPaint.setColor(getResources().getColor(R.color.minimap_viewport));
+        viewportPaint.setStyle(Paint.Style.STROKE);
+        viewportPaint.setStrokeWidth(2);
+    }
+
+    /**
+     * Shows the gameboard of a (new) game
+     */
+    public void setGame(Game game) {
+        setSnapshot(game.createSnapshot());
+    }
+
+    public void setSnapshot(BoardSnapshot snapshot) {
+        if (bitmap == null || snapshot.getRows() != rows || snapshot.getCols() != cols) {
+            rows = snapshot.getRows();
+            cols = snapshot.getCols();
+            bitmap = Bitmap.createBitmap(cols, rows, Bitmap.Config.RGB_565);
+            updateMapBounds();
+        }
+
+        int[] pixels = new int[rows * cols];
+        for (int row = 0; row < rows; ++row) {
+            for (int col = 0; col < cols; ++col) {
+                pixels[row * cols + col] = getColor(snapshot.get(row, col));
+            }
+        }
+        bitmap.setPixels(pixels, 0, cols, 0, 0, cols, rows);
+        invalidate();
+    }
+
+    public void setOnTileSelectedListener(OnTileSelectedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Updates the pixels of the changed tiles
+     */
+    public void onBoardChanged(BoardChangeSet changes) {
+        if (bitmap == null || changes.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < changes.size(); ++i) {
+            int cell = changes.getCell(i);
+            if (cell < rows * cols) {
+                bitmap.setPixel(cell % cols, cell / cols, getColor(changes.getValue(i)));
+            }
+        }
+        invalidate((int) mapBounds.left, (int) mapBounds.top, (int) Math.ceil(mapBounds.right), (int) Math.ceil(mapBounds.bottom));
+    }
+
+    /**
+     * Marks the visible part of the minefield (in tiles, right and bottom exclusive)
+     */
+    public void setViewport(float left, float top, float right, float bottom) {
+        viewport.set(Math.max(left, 0), Math.max(top, 0), Math.min(right, cols), Math.min(bottom, rows));
+        boolean allVisible = viewport.left <= 0 && viewport.top <= 0 && viewport.right >= cols && viewport.bottom >= rows;
+        int visibility = allVisible ? GONE : VISIBLE;
+        if (getVisibility() != visibility) {
+            setVisibility(visibility);
+        }
+        invalidate();
+    }
+
+    private static int getColor(short tile) {
+        return TileAtlas.getLodColor(Tile.getState(tile), Tile.getNrSurroundingMines(tile));
+    }
+
+    /**
+     * The gameboard keeps its aspect ratio and is centered within the padding
+     */
+    private void updateMapBounds() {
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (cols == 0 || rows == 0 || width <= 0 || height <= 0) {
+            mapBounds.setEmpty();
+            return;
+        }
+        float size = Math.min(width / cols, height / rows);
+        float left = getPaddingLeft() + (width - cols * size) / 2;
+        float top = getPaddingTop() + (height - rows * size) / 2;
+        mapBounds.set(left, top, left + cols * size, top + rows * size);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateMapBounds();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (bitmap == null || mapBounds.isEmpty()) {
+            return;
+        }
+        canvas.drawBitmap(bitmap, null, mapBounds, bitmapPaint);
+
+        float size = mapBounds.width() / cols;
+        viewportBounds.set(mapBounds.left + viewport.left * size, mapBounds.top + viewport.top * size,
+                mapBounds.left + viewport.right * size, mapBounds.top + viewport.bottom * size);
+        canvas.drawRect(viewportBounds, viewportPaint);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (listener == null || mapBounds.isEmpty()) {
+            return super.onTouchEvent(event);
+        }
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                float size = mapBounds.width() / cols;
+                int row = (int) ((event.getY() - mapBounds.top) / size);
+                int col = (int) ((event.getX() - mapBounds.left) / size);
+                listener.onTileSelected(Math.max(0, Math.min(row, rows - 1)), Math.max(0, Math.min(col, cols - 1)));
+                return true;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,344 @@
+package de.gehle.pauls.multisweeper.components;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Collects metrics of the real time messages in a room
+ * <p/>
+ * - Round trip time per participant (s. createPing)
+ * - Messages and bytes sent/received per message type, in total and per second
+ * - Reliable messages not yet acknowledged per participant (send queue)
+ * - Occupancy of the reorder buffer of the spectator stream
+ * - Time from an own move until it is applied
+ * <p/>
+ * Messages ([Byte1][Byte2]...[ByteN]):
+ * [P][Time1]...[Time8] = Ping
+ * [O][Time1]...[Time8] = Answer to a ping with the same time
+ *
+ * @author Andi
+ */
+public class NetworkMetrics {
+
+    public static final byte ACTION_PING = 'P';
+    public static final byte ACTION_PONG = 'O';
+
+    private static final int TYPES = 128;
+
+    private static final int MAX_PENDING_MOVES = 64;
+    private static final long MAX_PENDING_AGE = 10000;
+
+    private long startTime = SystemClock.elapsedRealtime();
+
+    private long[] sentMessages = new long[TYPES];
+    private long[] sentBytes = new long[TYPES];
+    private long[] receivedMessages = new long[TYPES];
+    private long[] receivedBytes = new long[TYPES];
+
+    /**
+     * Values of the last call of sample() to calculate the rates
+     */
+    private long sampleTime = startTime;
+    private long[] sampledSentBytes = new long[TYPES];
+    private long[] sampledReceivedBytes = new long[TYPES];
+    private long[] sampledSentMessages = new long[TYPES];
+    private long[] sampledReceivedMessages = new long[TYPES];
+    private float[] sentBytesPerSecond = new float[TYPES];
+    private float[] receivedBytesPerSecond = new float[TYPES];
+    private float[] sentMessagesPerSecond = new float[TYPES];
+    private float[] receivedMessagesPerSecond = new float[TYPES];
+
+    private Map<String, LatencyHistogram> roundTripTimes = new HashMap<String, LatencyHistogram>();
+    private Map<String, Long> lastRoundTripTimes = new HashMap<String, Long>();
+
+    private Map<String, int[]> sendQueues = new HashMap<String, int[]>();
+    private int maxSendQueue = 0;
+
+    private int reorderBuffer = 0;
+    private int maxReorderBuffer = 0;
+
+    /**
+     * Own move not yet applied
+     */
+    private static class PendingMove {
+        private final long sendTime;
+        private final int row;
+        private final int col;
+
+        private PendingMove(long sendTime, int row, int col) {
+            this.sendTime = sendTime;
+            this.row = row;
+            this.col = col;
+        }
+    }
+
+    /**
+     * Own moves in the order sent, moves lost or older than MAX_PENDING_AGE are dropped
+     */
+    private LinkedList<PendingMove> pendingMoves = new LinkedList<PendingMove>();
+    private LatencyHistogram moveLatency = new LatencyHistogram();
+
+    /**
+     * ============================================================
+     * Messages
+     * ============================================================
+     */
+
+    /**
+     * @param reliable Whether the delivery will be confirmed by onMessageDelivered
+     */
+    public void onMessageSent(String recipient, byte[] message, boolean reliable) {
+        int type = message[0] & (TYPES - 1);
+        ++sentMessages[type];
+        sentBytes[type] += message.length;
+
+        if (reliable) {
+            int[] queue = getSendQueue(recipient);
+            ++queue[0];
+            maxSendQueue = Math.max(maxSendQueue, queue[0]);
+        }
+    }
+
+    public void onMessageDelivered(String recipient) {
+        int[] queue = getSendQueue(recipient);
+        if (queue[0] > 0) {
+            --queue[0];
+        }
+    }
+
+    public void onMessageReceived(byte[] message) {
+        int type = message[0] & (TYPES - 1);
+        ++receivedMessages[type];
+        receivedBytes[type] += message.length;
+    }
+
+    private int[] getSendQueue(String participantId) {
+        int[] queue = sendQueues.get(participantId);
+        if (queue == null) {
+            queue = new int[1];
+            sendQueues.put(participantId, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * ============================================================
+     * Round trip time
+     * ============================================================
+     */
+
+    public byte[] createPing() {
+        byte[] ping = new byte[9];
+        ping[0] = ACTION_PING;
+        writeLong(ping, 1, System.nanoTime());
+        return ping;
+    }
+
+    public static byte[] createPong(byte[] ping) {
+        byte[] pong = ping.clone();
+        pong[0] = ACTION_PONG;
+        return pong;
+    }
+
+    public void onPong(String sender, byte[] pong) {
+        long roundTripTime = (System.nanoTime() - readLong(pong, 1)) / 1000000;
+
+        LatencyHistogram histogram = roundTripTimes.get(sender);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            roundTripTimes.put(sender, histogram);
+        }
+        histogram.add(roundTripTime);
+        lastRoundTripTimes.put(sender, roundTripTime);
+    }
+
+    /**
+     * ============================================================
+     * Spectator stream & moves
+     * ============================================================
+     */
+
+    public void onReorderBufferChanged(int occupancy) {
+        reorderBuffer = occupancy;
+        maxReorderBuffer = Math.max(maxReorderBuffer, occupancy);
+    }
+
+    /**
+     * An own move was sent to the host
+     */
+    public void onMoveSent(int row, int col) {
+        long now = SystemClock.elapsedRealtime();
+        dropExpiredMoves(now);
+        if (pendingMoves.size() == MAX_PENDING_MOVES) {
+            pendingMoves.removeFirst();
+        }
+        pendingMoves.addLast(new PendingMove(now, row, col));
+    }
+
+    /**
+     * An own move came back from the host and was applied
+     * <p/>
+     * Matched by its tile, not by the order: A move without any change (e.g. on an uncovered tile)
+     * may never come back in fog mode.
+     */
+    public void onMoveApplied(int row, int col) {
+        long now = SystemClock.elapsedRealtime();
+        dropExpiredMoves(now);
+        Iterator<PendingMove> it = pendingMoves.iterator();
+        while (it.hasNext()) {
+            PendingMove move = it.next();
+            if (move.row == row && move.col == col) {
+                it.remove();
+                moveLatency.add(now - move.sendTime);
+                return;
+            }
+        }
+    }
+
+    /**
+     * A move without answer for so long is counted as lost
+     */
+    private void dropExpiredMoves(long now) {
+        while (!pendingMoves.isEmpty() && now - pendingMoves.getFirst().sendTime > MAX_PENDING_AGE) {
+            pendingMoves.removeFirst();
+        }
+    }
+
+    /**
+     * ============================================================
+     * Output
+     * ============================================================
+     */
+
+    /**
+     * Calculates the rates since the last call
+     */
+    public void sample() {
+        long now = SystemClock.elapsedRealtime();
+        float seconds = Math.max(now - sampleTime, 1) / 1000f;
+
+        for (int type = 0; type < TYPES; ++type) {
+            sentBytesPerSecond[type] = (sentBytes[type] - sampledSentBytes[type]) / seconds;
+            receivedBytesPerSecond[type] = (receivedBytes[type] - sampledReceivedBytes[type]) / seconds;
+            sentMessagesPerSecond[type] = (sentMessages[type] - sampledSentMessages[type]) / seconds;
+            receivedMessagesPerSecond[type] = (receivedMessages[type] - sampledReceivedMessages[type]) / seconds;
+
+            sampledSentBytes[type] = sentBytes[type];
+            sampledReceivedBytes[type] = receivedBytes[type];
+            sampledSentMessages[type] = sentMessages[type];
+            sampledReceivedMessages[type] = receivedMessages[type];
+        }
+        sampleTime = now;
+    }
+
+    /**
+     * Short summary for the debug overlay
+     */
+    public String toOverlayText() {
+        StringBuilder text = new StringBuilder();
+
+        for (Map.Entry<String, Long> rtt : lastRoundTripTimes.entrySet()) {
+            text.append("RTT ").append(shorten(rtt.getKey())).append(": ").append(rtt.getValue())
+                    .append("ms (").append(roundTripTimes.get(rtt.getKey())).append(")\n");
+        }
+
+        for (int type = 0; type < TYPES; ++type) {
+            if (sentMessages[type] == 0 && receivedMessages[type] == 0) {
+                continue;
+            }
+            text.append((char) type)
+                    .append(" out ").append(sentMessages[type]).append("/").append(sentBytes[type]).append("B ")
+                    .append(Math.round(sentBytesPerSecond[type])).append("B/s")
+                    .append(" in ").append(receivedMessages[type]).append("/").append(receivedBytes[type]).append("B ")
+                    .append(Math.round(receivedBytesPerSecond[type])).append("B/s\n");
+        }
+
+        for (Map.Entry<String, int[]> queue : sendQueues.entrySet()) {
+            text.append("Queue ").append(shorten(queue.getKey())).append(": ").append(queue.getValue()[0]).append("\n");
+        }
+        text.append("Queue max: ").append(maxSendQueue).append("\n");
+        text.append("Reorder: ").append(reorderBuffer).append(" (max ").append(maxReorderBuffer).append(")\n");
+        text.append("Move: ").append(moveLatency);
+
+        return text.toString();
+    }
+
+    public JSONObject toJson() {
+        try {
+            JSONObject obj = new JSONObject();
+            obj.put("uptimeMillis", SystemClock.elapsedRealtime() - startTime);
+
+            JSONObject jsonTypes = new JSONObject();
+            for (int type = 0; type < TYPES; ++type) {
+                if (sentMessages[type] == 0 && receivedMessages[type] == 0) {
+                    continue;
+                }
+                JSONObject jsonType = new JSONObject();
+                jsonType.put("sentMessages", sentMessages[type]);
+                jsonType.put("sentBytes", sentBytes[type]);
+                jsonType.put("sentMessagesPerSecond", sentMessagesPerSecond[type]);
+                jsonType.put("sentBytesPerSecond", sentBytesPerSecond[type]);
+                jsonType.put("receivedMessages", receivedMessages[type]);
+                jsonType.put("receivedBytes", receivedBytes[type]);
+                jsonType.put("receivedMessagesPerSecond", receivedMessagesPerSecond[type]);
+                jsonType.put("receivedBytesPerSecond", receivedBytesPerSecond[type]);
+                jsonTypes.put(String.valueOf((char) type), jsonType);
+            }
+            obj.put("messages", jsonTypes);
+
+            JSONObject jsonRoundTripTimes = new JSONObject();
+            for (Map.Entry<String, LatencyHistogram> rtt : roundTripTimes.entrySet()) {
+                jsonRoundTripTimes.put(rtt.getKey(), rtt.getValue().toJson());
+            }
+            obj.put("roundTripTimes", jsonRoundTripTimes);
+
+            JSONObject jsonQueues = new JSONObject();
+            for (Map.Entry<String, int[]> queue : sendQueues.entrySet()) {
+                jsonQueues.put(queue.getKey(), queue.getValue()[0]);
+            }
+            obj.put("sendQueues", jsonQueues);
+            obj.put("maxSendQueue", maxSendQueue);
+
+            obj.put("reorderBuffer", reorderBuffer);
+            obj.put("maxReorderBuffer", maxReorderBuffer);
+            obj.put("moveToApply", moveLatency.toJson());
+
+            return obj;
+        } catch (JSONException ex) {
+            ex.printStackTrace();
+            throw new RuntimeException("Error converting network metrics to JSON.", ex);
+        }
+    }
+
+    /**
+     * ============================================================
+     * Helpers
+     * ============================================================
+     */
+
+    private static String shorten(String participantId) {
+        return participantId.length() > 8 ? participantId.substring(participantId.length() - 8) : participantId;
+    }
+
+    private static void writeLong(byte[] buf, int offset, long value) {
+        for (int i = 7; i >= 0; --i) {
+            buf[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long readLong(byte[] buf, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; ++i) {
+            value = (value << 8) | (buf[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,104 @@
+package de.gehle.pauls.multisweeper.components;
+
+import com.google.android.gms.games.multiplayer.Participant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Maps the participant ids of a room to small player ids (0, 1, 2, ...)
+ * <p/>
+ * The ids are assigned once per room, when the game starts, by sorting the participant ids.
+ * So every participant gets the same ids without exchanging any messages
+ * and the ids can be sent in the messages instead of looking up the sender.
+ * Participants joining later get the next free ids. The participant with id 0 is the host.
+ *
+ * @author Andi
+ */
+public class ParticipantRegistry {
+
+    public static final int HOST_ID = 0;
+
+    private String roomId = null;
+    private final ArrayList<String> participantIds = new ArrayList<String>();
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+    private int myId = -1;
+
+    /**
+     * Assigns the ids for the participants of a room
+     *
+     * @param roomId          Room of the game
+     * @param participants    Participants in the room
+     * @param myParticipantId Participant id of this device
+     */
+    public void assign(String roomId, List<Participant> participants, String myParticipantId) {
+        clear();
+        this.roomId = roomId;
+        update(roomId, participants, myParticipantId);
+    }
+
+    /**
+     * Adds participants, which have joined after the ids were assigned
+     */
+    public void update(String roomId, List<Participant> participants, String myParticipantId) {
+        if (roomId == null || !roomId.equals(this.roomId)) {
+            return;
+        }
+
+        List<String> newParticipantIds = new ArrayList<String>();
+        for (Participant p : participants) {
+            if (!ids.containsKey(p.getParticipantId())) {
+                newParticipantIds.add(p.getParticipantId());
+            }
+        }
+        Collections.sort(newParticipantIds);
+
+        for (String participantId : newParticipantIds) {
+            ids.put(participantId, participantIds.size());
+            participantIds.add(participantId);
+        }
+
+        myId = getId(myParticipantId);
+    }
+
+    public void clear() {
+        roomId = null;
+        participantIds.clear();
+        ids.clear();
+        myId = -1;
+    }
+
+    /**
+     * @return Player id of the participant or -1 if unknown
+     */
+    public int getId(String participantId) {
+        Integer id = ids.get(participantId);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return Participant id of the player or null if unknown
+     */
+    public String getParticipantId(int id) {
+        return id >= 0 && id < participantIds.size() ? participantIds.get(id) : null;
+    }
+
+    public int getMyId() {
+        return myId;
+    }
+
+    public String getHostParticipantId() {
+        return getParticipantId(HOST_ID);
+    }
+
+    public boolean isHost() {
+        return myId == HOST_ID;
+    }
+
+    public int size() {
+        return participantIds.size();
+    }
+}
@@ -0,0 +1,368 @@
+package de.gehle.pauls.multisweeper.components;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.games.multiplayer.Multiplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
+import de.gehle.pauls.multisweeper.engine.Game;
+import de.gehle.pauls.multisweeper.engine.MinesweeperObserver;
+import de.gehle.pauls.multisweeper.engine.MoveLog;
+
+/**
+ * Race mode in multiplayer
+ * <p/>
+ * Every player plays an own game on the same gameboard: The host chooses a seed for the mines
+ * and the first click, so every gameboard gets the same mine layout.
+ * The moves are not sent, only a summary of the progress once in a while.
+ * A player who has uncovered all fields sends its move log to the host, which replays it
+ * on its own gameboard before declaring the winner.
+ * <p/>
+ * Messages ([Byte1][Byte2]...[ByteN]):
+ * [G][Seed1]...[Seed8][Rows1..4][Cols1..4][Mines1..4][StartRow1..4][StartCol1..4] = Start of a race
+ * [U][PlayerId][Status][Uncovered1..4][Flags1..4][Moves1..4][Hash1..4] = Progress of a player (Status s. RUNNING, WON, LOST)
+ * [M][PlayerId][Move1..4][Move1..4]... = Part of the move log of a player, who has won (s. MoveLog)
+ * [V][WinnerId][DisqualifiedId]... = Result of the race checked by the host (WinnerId -1 if nobody has won)
+ *
+ * @author Andi
+ */
+public class RaceSession {
+
+    private static final String TAG = "RaceSession";
+
+    public static final byte ACTION_START = 'G';
+    public static final byte ACTION_PROGRESS = 'U';
+    public static final byte ACTION_MOVES = 'M';
+    public static final byte ACTION_VERDICT = 'V';
+
+    public static final int RUNNING = 0;
+    public static final int WON = 1;
+    public static final int LOST = 2;
+
+    private static final int START_LENGTH = 29;
+    private static final int PROGRESS_LENGTH = 19;
+    private static final int MOVES_PER_MESSAGE = (Multiplayer.MAX_RELIABLE_MESSAGE_LEN - 2) / 4;
+
+    /**
+     * Game without any output, used by the host to replay move logs
+     */
+    private static final MinesweeperObserver NO_OBSERVER = new MinesweeperObserver() {
+        @Override
+        public void onBoardChanged(BoardChangeSet changes) {
+        }
+
+        @Override
+        public void onGameStateChanged(Game.GameState newState) {
+        }
+
+        @Override
+        public void updateTimer(int secondsPassed) {
+        }
+
+        @Override
+        public void updateCounter(int newValue) {
+        }
+    };
+
+    public static class Progress {
+        public int playerId;
+        public int status;
+        public int uncovered;
+        public int flags;
+        public int moves;
+        public int hash;
+    }
+
+    private final long seed;
+    private final int rows;
+    private final int cols;
+    private final int mines;
+    private final int startRow;
+    private final int startCol;
+
+    private final SparseArray<Progress> progresses = new SparseArray<Progress>();
+    private final SparseArray<MoveLog> moveLogs = new SparseArray<MoveLog>();
+
+    private boolean decided = false;
+    private int winnerId = -1;
+    private final List<Integer> disqualified = new ArrayList<Integer>();
+
+    private RaceSession(long seed, int rows, int cols, int mines, int startRow, int startCol) {
+        this.seed = seed;
+        this.rows = rows;
+        this.cols = cols;
+        this.mines = mines;
+        this.startRow = startRow;
+        this.startCol = startCol;
+    }
+
+    /**
+     * Host: Chooses the seed and first click of a new race
+     */
+    public static RaceSession create(int rows, int cols, int mines) {
+        Random random = new Random();
+        return new RaceSession(random.nextLong(), rows, cols, mines, random.nextInt(rows), random.nextInt(cols));
+    }
+
+    /**
+     * @return Game with the mine layout of the race, still without the first click (s. getStartRow)
+     */
+    public Game createGame(MinesweeperObserver observer, int nrOfPlayers) {
+        return new Game(observer, rows, cols, mines, nrOfPlayers, seed);
+    }
+
+    public int getStartRow() {
+        return startRow;
+    }
+
+    public int getStartCol() {
+        return startCol;
+    }
+
+    public int getUncoverableCount() {
+        return rows * cols - mines;
+    }
+
+    public Progress getProgress(int playerId) {
+        return progresses.get(playerId);
+    }
+
+    /**
+     * @return Whether the host has sent the result
+     */
+    public boolean isDecided() {
+        return decided;
+    }
+
+    public int getWinnerId() {
+        return winnerId;
+    }
+
+    public boolean isDisqualified(int playerId) {
+        return disqualified.contains(playerId);
+    }
+
+    /**
+     * @return Whether all given players have won or lost
+     */
+    public boolean allFinished(List<Integer> playerIds) {
+        for (int playerId : playerIds) {
+            Progress progress = progresses.get(playerId);
+            if (progress == null || progress.status == RUNNING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * ============================================================
+     * Verification (host)
+     * ============================================================
+     */
+
+    public void setMoveLog(int playerId, MoveLog moveLog) {
+        moveLogs.put(playerId, moveLog);
+    }
+
+    /**
+     * Replays the move log of a player, who claims to have won
+     *
+     * @return Whether the log matches the reported progress and uncovers all fields
+     */
+    public boolean verify(int playerId) {
+        MoveLog moveLog = moveLogs.get(playerId);
+        Progress progress = progresses.get(playerId);
+        if (moveLog == null || progress == null || moveLog.size() == 0) {
+            return false;
+        }
+        if (moveLog.size() != progress.moves || moveLog.getHash() != progress.hash) {
+            Log.d(TAG, "Move log of player " + playerId + " doesn't match its progress");
+            return false;
+        }
+
+        //The first click decides the mine layout, so it has to be the given one
+        int firstMove = moveLog.get(0);
+        if (MoveLog.isAltMove(firstMove) || MoveLog.getRow(firstMove) != startRow || MoveLog.getCol(firstMove) != startCol) {
+            return false;
+        }
+
+        Game replay = createGame(NO_OBSERVER, playerId + 1);
+        moveLog.replay(replay, playerId);
+
+        boolean won = replay.getGameState() == Game.GameState.GAME_WON;
+        if (replay.getGameState() == Game.GameState.RUNNING) {
+            //Stops the timer
+            replay.endGame(Game.GameState.GAME_LOST);
+        }
+        return won && replay.getUncoveredCount() == progress.uncovered;
+    }
+
+    /**
+     * Host: A player, whose move log was not accepted, is counted as lost
+     */
+    public void disqualify(int playerId) {
+        if (!disqualified.contains(playerId)) {
+            disqualified.add(playerId);
+        }
+        Progress progress = progresses.get(playerId);
+        if (progress != null) {
+            progress.status = LOST;
+        }
+    }
+
+    /**
+     * ============================================================
+     * Messages
+     * ============================================================
+     */
+
+    public byte[] createStart() {
+        byte[] message = new byte[START_LENGTH];
+        message[0] = ACTION_START;
+        writeLong(message, 1, seed);
+        writeInt(message, 9, rows);
+        writeInt(message, 13, cols);
+        writeInt(message, 17, mines);
+        writeInt(message, 21, startRow);
+        writeInt(message, 25, startCol);
+        return message;
+    }
+
+    public static RaceSession fromStart(byte[] message) {
+        return new RaceSession(
+                readLong(message, 1),
+                readInt(message, 9),
+                readInt(message, 13),
+                readInt(message, 17),
+                readInt(message, 21),
+                readInt(message, 25));
+    }
+
+    public static byte[] createProgress(int playerId, Game game) {
+        int status = RUNNING;
+        if (game.getGameState() == Game.GameState.GAME_WON) {
+            status = WON;
+        } else if (game.getGameState() == Game.GameState.GAME_LOST) {
+            status = LOST;
+        }
+
+        byte[] message = new byte[PROGRESS_LENGTH];
+        message[0] = ACTION_PROGRESS;
+        message[1] = (byte) playerId;
+        message[2] = (byte) status;
+        writeInt(message, 3, game.getUncoveredCount());
+        writeInt(message, 7, game.getFlagCount());
+        writeInt(message, 11, game.getMoveLog().size());
+        writeInt(message, 15, game.getMoveLog().getHash());
+        return message;
+    }
+
+    /**
+     * @return The received progress
+     */
+    public Progress onProgress(byte[] message) {
+        int playerId = message[1];
+        Progress progress = progresses.get(playerId);
+        if (progress == null) {
+            progress = new Progress();
+            progress.playerId = playerId;
+            progresses.put(playerId, progress);
+        }
+        progress.status = isDisqualified(playerId) ? LOST : message[2];
+        progress.uncovered = readInt(message, 3);
+        progress.flags = readInt(message, 7);
+        progress.moves = readInt(message, 11);
+        progress.hash = readInt(message, 15);
+        return progress;
+    }
+
+    public static List<byte[]> createMoves(int playerId, MoveLog moveLog) {
+        List<byte[]> messages = new ArrayList<byte[]>();
+        for (int first = 0; first < moveLog.size(); first += MOVES_PER_MESSAGE) {
+            int count = Math.min(MOVES_PER_MESSAGE, moveLog.size() - first);
+            byte[] message = new byte[2 + count * 4];
+            message[0] = ACTION_MOVES;
+            message[1] = (byte) playerId;
+            for (int i = 0; i < count; ++i) {
+                writeInt(message, 2 + i * 4, moveLog.get(first + i));
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Host: Collects the parts of a move log
+     */
+    public void onMoves(byte[] message) {
+        int playerId = message[1];
+        MoveLog moveLog = moveLogs.get(playerId);
+        if (moveLog == null) {
+            moveLog = new MoveLog();
+            moveLogs.put(playerId, moveLog);
+        }
+        for (int offset = 2; offset + 4 <= message.length; offset += 4) {
+            moveLog.add(readInt(message, offset));
+        }
+    }
+
+    public byte[] createVerdict(int winnerId) {
+        byte[] message = new byte[2 + disqualified.size()];
+        message[0] = ACTION_VERDICT;
+        message[1] = (byte) winnerId;
+        for (int i = 0; i < disqualified.size(); ++i) {
+            message[i + 2] = (byte) (int) disqualified.get(i);
+        }
+        return message;
+    }
+
+    public void onVerdict(byte[] message) {
+        decided = true;
+        winnerId = message[1];
+        for (int i = 2; i < message.length; ++i) {
+            disqualify(message[i]);
+        }
+    }
+
+    /**
+     * ============================================================
+     * Helpers
+     * ============================================================
+     */
+
+    private static void writeInt(byte[] buf, int offset, int value) {
+        for (int i = 3; i >= 0; --i) {
+            buf[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static int readInt(byte[] buf, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; ++i) {
+            value = (value << 8) | (buf[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] buf, int offset, long value) {
+        for (int i = 7; i >= 0; --i) {
+            buf[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long readLong(byte[] buf, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; ++i) {
+            value = (value << 8) | (buf[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,189 @@
+package de.gehle.pauls.multisweeper.components;
+
+import com.google.android.gms.games.multiplayer.Multiplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
+import de.gehle.pauls.multisweeper.engine.Game;
+import de.gehle.pauls.multisweeper.engine.Tile;
+
+/**
+ * Collects the tiles changed by a move on the host and encodes them as reveal messages.
+ * <p/>
+ * Used in fog mode, where only the host knows the mine layout and
+ * clients just see the tiles the host has uncovered.
+ * <p/>
+ * Message ([Byte1][Byte2]...[ByteN]):
+ * [R][PlayerId][Last << 7 | GameState][MoveRow][MoveCol] [Row][Col][State][MarkerPlayerId << 4 | SurroundingMines] [Row][Col]...
+ * MoveRow, MoveCol = Tile of the move, so the player can match it with its own move (s. NetworkMetrics)
+ *
+ * @author Andi
+ */
+public class RevealBuffer {
+
+    public static final byte ACTION = 'R';
+
+    private static final int HEADER_LENGTH = 5;
+    private static final int TILE_LENGTH = 4;
+
+    /**
+     * Leaves room for the header of the spectator stream (s. SpectatorStream)
+     */
+    private static final int TILES_PER_MESSAGE =
+            (Multiplayer.MAX_RELIABLE_MESSAGE_LEN - SpectatorStream.SNAPSHOT_HEADER_LENGTH - HEADER_LENGTH) / TILE_LENGTH;
+
+    private static final int LAST_PART = 0x80;
+    private static final int GAME_STATE_MASK = 0x7F;
+
+    private static final Tile.TileState[] states = Tile.TileState.values();
+    private static final Game.GameState[] gameStates = Game.GameState.values();
+
+    private int cols;
+    private boolean[] dirty = new boolean[0];
+    private int[] changed = new int[0];
+    private int size = 0;
+
+    /**
+     * Prepares the buffer for a (new) gameboard
+     */
+    public void reset(int rows, int cols) {
+        this.cols = cols;
+        dirty = new boolean[rows * cols];
+        changed = new int[rows * cols];
+        size = 0;
+    }
+
+    /**
+     * Marks a tile as changed. Every tile is only sent once per move.
+     */
+    public void add(int row, int col) {
+        int index = row * cols + col;
+        if (index >= dirty.length || dirty[index]) {
+            return;
+        }
+        dirty[index] = true;
+        changed[size++] = index;
+    }
+
+    /**
+     * Marks all tiles changed by an operation of the game
+     */
+    public void add(BoardChangeSet changes) {
+        for (int i = 0; i < changes.size(); ++i) {
+            add(changes.getRow(i), changes.getCol(i));
+        }
+    }
+
+    /**
+     * Marks all tiles, which aren't covered anymore (For snapshots)
+     */
+    public void addVisible(Game game) {
+        for (int row = 0; row < game.getRows(); ++row) {
+            for (int col = 0; col < game.getCols(); ++col) {
+                if (game.getTile(row, col).getState() != Tile.TileState.COVERED) {
+                    add(row, col);
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Encodes all changed tiles without a move (e.g. a snapshot) and clears the buffer
+     *
+     * @return Messages for Game.NO_PLAYER (s. flush)
+     */
+    public List<byte[]> flush(Game game) {
+        return flush(Game.NO_PLAYER, 0, 0, game);
+    }
+
+    /**
+     * Encodes all changed tiles and clears the buffer
+     *
+     * @param playerId Player who did the move (or Game.NO_PLAYER)
+     * @param moveRow  Row of the move
+     * @param moveCol  Col of the move
+     * @param game     Game the tile states are read from
+     * @return Messages small enough to be sent reliable
+     */
+    public List<byte[]> flush(int playerId, int moveRow, int moveCol, Game game) {
+        List<byte[]> messages = new ArrayList<byte[]>(size / TILES_PER_MESSAGE + 1);
+        int gameState = game.getGameState().ordinal();
+
+        for (int start = 0; start < size; start += TILES_PER_MESSAGE) {
+            int count = Math.min(TILES_PER_MESSAGE, size - start);
+            byte[] message = new byte[HEADER_LENGTH + count * TILE_LENGTH];
+            message[0] = ACTION;
+            message[1] = (byte) playerId;
+            message[2] = (byte) (start + count == size ? LAST_PART | gameState : gameState);
+            message[3] = (byte) moveRow;
+            message[4] = (byte) moveCol;
+
+            int pos = HEADER_LENGTH;
+            for (int i = start; i < start + count; ++i) {
+                int row = changed[i] / cols;
+                int col = changed[i] % cols;
+                Tile tile = game.getTile(row, col);
+
+                message[pos++] = (byte) row;
+                message[pos++] = (byte) col;
+                message[pos++] = (byte) tile.getState().ordinal();
+                message[pos++] = (byte) (tile.getPlayerId() << 4 | tile.getNrSurroundingMines());
+
+                dirty[changed[i]] = false;
+            }
+            messages.add(message);
+        }
+
+        size = 0;
+        return messages;
+    }
+
+    /**
+     * Applies a received reveal message to the game
+     */
+    public static void apply(Game game, byte[] message) {
+        int playerId = message[1];
+
+        game.beginChanges();
+        for (int pos = HEADER_LENGTH; pos + TILE_LENGTH <= message.length; pos += TILE_LENGTH) {
+            int row = message[pos];
+            int col = message[pos + 1];
+            Tile.TileState state = states[message[pos + 2]];
+            int markerPlayerId = (message[pos + 3] >> 4) & 0x0F;
+            int surroundingMines = message[pos + 3] & 0x0F;
+
+            game.applyReveal(playerId, row, col, state, surroundingMines, markerPlayerId);
+        }
+        game.endChanges();
+
+        //A move may be split into several messages, it has ended with the last one
+        if (isLastPart(message)) {
+            game.applyGameState(gameStates[message[2] & GAME_STATE_MASK]);
+        }
+    }
+
+    /**
+     * @return Whether this is the last message of a move
+     */
+    public static boolean isLastPart(byte[] message) {
+        return (message[2] & LAST_PART) != 0;
+    }
+
+    public static int getPlayerId(byte[] message) {
+        return message[1];
+    }
+
+    public static int getMoveRow(byte[] message) {
+        return message[3];
+    }
+
+    public static int getMoveCol(byte[] message) {
+        return message[4];
+    }
+}
@@ -0,0 +1,206 @@
+package de.gehle.pauls.multisweeper.components;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
+
+/**
+ * Shows a big opening ring by ring instead of all at once
+ * <p/>
+ * The game has already uncovered all tiles, only the drawing is delayed: The tiles of a change set
+ * are sorted into rings by a breadth-first search from the first changed tile (the clicked one,
+ * s. GameBoard.uncover). Every frame shows the next rings, so an opening always takes
+ * at most MAX_FRAMES frames, however big the gameboard is.
+ * The tiles shown in one frame are limited by a time budget, the rest follows in the next frame.
+ * <p/>
+ * Used by the render thread only (s. BoardRenderer).
+ *
+ * @author Andi
+ */
+public class RevealScheduler {
+
+    /**
+     * Receives the tiles, when it's their turn
+     */
+    public interface TileSink {
+        public void setTile(int cell, short value);
+    }
+
+    /**
+     * Smaller change sets are shown at once
+     */
+    private final static int MIN_TILES = 24;
+
+    /**
+     * Most frames of an opening
+     */
+    private final static int MAX_FRAMES = 30;
+
+    /**
+     * Time per frame for showing tiles
+     */
+    private final static long BUDGET_MILLIS = 2;
+
+    private int rows = 0;
+    private int cols = 0;
+
+    /**
+     * Per tile of the gameboard: Index in the scheduled change set + 1 (0 = not scheduled)
+     */
+    private int[] scheduled = new int[0];
+
+    /**
+     * Tiles of the scheduled change set in the order they are shown and the end of every ring
+     */
+    private int[] order = new int[0];
+    private short[] values = new short[0];
+    private int[] ringEnds = new int[0];
+    private int size = 0;
+    private int rings = 0;
+
+    private int cursor = 0;
+    private int shownRings = 0;
+    private int ringsPerFrame = 1;
+
+    /**
+     * Sets the size of the gameboard and drops all scheduled tiles
+     */
+    public void reset(int rows, int cols) {
+        if (rows * cols != scheduled.length) {
+            scheduled = new int[rows * cols];
+            order = new int[rows * cols];
+            ringEnds = new int[rows * cols + 1];
+        } else {
+            Arrays.fill(scheduled, 0);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        size = 0;
+        rings = 0;
+        cursor = 0;
+    }
+
+    public boolean isRunning() {
+        return cursor < size;
+    }
+
+    /**
+     * @return Whether the changes are shown ring by ring, otherwise they have to be shown at once
+     */
+    public boolean schedule(BoardChangeSet changes, TileSink sink) {
+        if (changes.size() < MIN_TILES || changes.getBottom() >= rows || changes.getRight() >= cols) {
+            return false;
+        }
+        //Only one opening at a time
+        finish(sink);
+
+        if (values.length < changes.size()) {
+            values = new short[changes.size()];
+        }
+        for (int i = 0; i < changes.size(); ++i) {
+            scheduled[changes.getCell(i)] = i + 1;
+        }
+
+        //Breadth-first search over the changed tiles, every level is a ring
+        size = 0;
+        rings = 0;
+        append(changes, 0);
+        ringEnds[rings++] = size;
+        int ringStart = 0;
+        while (ringStart < size) {
+            int ringEnd = size;
+            for (int i = ringStart; i < ringEnd; ++i) {
+                int row = order[i] / cols;
+                int col = order[i] % cols;
+                for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, rows - 1); ++r) {
+                    for (int c = Math.max(col - 1, 0); c <= Math.min(col + 1, cols - 1); ++c) {
+                        int index = scheduled[r * cols + c] - 1;
+                        if (index >= 0 && !isQueued(changes, index)) {
+                            append(changes, index);
+                        }
+                    }
+                }
+            }
+            if (size > ringEnd) {
+                ringEnds[rings++] = size;
+            }
+            ringStart = ringEnd;
+        }
+
+        //Tiles not connected to the first one (e.g. mines at the end of the game) come last
+        if (size < changes.size()) {
+            for (int i = 0; i < changes.size(); ++i) {
+                if (!isQueued(changes, i)) {
+                    append(changes, i);
+                }
+            }
+            ringEnds[rings++] = size;
+        }
+
+        cursor = 0;
+        shownRings = 0;
+        ringsPerFrame = (rings + MAX_FRAMES - 1) / MAX_FRAMES;
+        return true;
+    }
+
+    /**
+     * A tile was changed again: The newer state wins, so the scheduled one is dropped
+     */
+    public void cancel(int cell) {
+        if (cell < scheduled.length) {
+            scheduled[cell] = 0;
+        }
+    }
+
+    /**
+     * Shows the rings of the next frame, as far as the time budget allows
+     */
+    public void step(TileSink sink) {
+        if (!isRunning()) {
+            return;
+        }
+        shownRings = Math.min(shownRings + ringsPerFrame, rings);
+        int end = ringEnds[shownRings - 1];
+        long deadline = SystemClock.uptimeMillis() + BUDGET_MILLIS;
+        while (cursor < end) {
+            show(sink, cursor++);
+            if ((cursor & 63) == 0 && SystemClock.uptimeMillis() >= deadline) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Shows all remaining tiles at once
+     */
+    public void finish(TileSink sink) {
+        while (cursor < size) {
+            show(sink, cursor++);
+        }
+    }
+
+    /**
+     * While scheduling, scheduled[] marks queued tiles with a negative index
+     */
+    private boolean isQueued(BoardChangeSet changes, int index) {
+        return scheduled[changes.getCell(index)] < 0;
+    }
+
+    private void append(BoardChangeSet changes, int index) {
+        int cell = changes.getCell(index);
+        order[size] = cell;
+        values[size] = changes.getValue(index);
+        scheduled[cell] = -1;
+        ++size;
+    }
+
+    private void show(TileSink sink, int position) {
+        int cell = order[position];
+        if (scheduled[cell] != 0) {
+            scheduled[cell] = 0;
+            sink.setTile(cell, values[position]);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package de.gehle.pauls.multisweeper.components;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes saved games one after another on a background thread
+ * <p/>
+ * Only the latest request is kept while a save is running: Older requests, which weren't started yet,
+ * are replaced, because the newer state contains them. Their callbacks get the result of the newer save.
+ * Jobs, which can't be replaced (s. submit), run in order with them on the same thread.
+ * Submitted saves of a slot are known until they are written (s. hasPendingSave).
+ * Callbacks are called on the UI thread.
+ * The queue is shared by the whole app, so a save goes on when the activity is left.
+ *
+ * @author Andi
+ */
+public class SaveQueue {
+
+    private static final String TAG = "SaveQueue";
+
+    /**
+     * A save, e.g. of a snapshot (s. SinglePlayerActivity)
+     */
+    public interface SaveJob {
+        /**
+         * Runs on the background thread, so it may wait for results
+         *
+         * @return Whether the game was saved
+         */
+        public boolean write();
+    }
+
+    public interface Callback {
+        public void onSaveFinished(boolean success);
+    }
+
+    private static SaveQueue instance;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private SaveJob pending;
+    private List<Callback> pendingCallbacks = new ArrayList<Callback>();
+    private boolean writing = false;
+
+    /**
+     * Number of submitted saves per slot, which aren't written yet
+     */
+    private final Map<String, Integer> pendingSlots = new HashMap<String, Integer>();
+
+    public static synchronized SaveQueue getInstance() {
+        if (instance == null) {
+            instance = new SaveQueue();
+        }
+        return instance;
+    }
+
+    private SaveQueue() {
+    }
+
+    /**
+     * Returns at once, the job is written later
+     *
+     * @param callback Gets the result (or null)
+     */
+    public synchronized void enqueue(SaveJob job, Callback callback) {
+        if (pending != null) {
+            Log.d(TAG, "Replacing a waiting save");
+        }
+        pending = job;
+        if (callback != null) {
+            pendingCallbacks.add(callback);
+        }
+        if (!writing) {
+            writing = true;
+            writer.execute(drain);
+        }
+    }
+
+    /**
+     * Returns at once, unlike enqueue the job is never replaced, e.g. writing a game to the device
+     *
+     * @param callback Gets the result (or null)
+     */
+    public void submit(SaveJob job, Callback callback) {
+        submit(null, job, callback);
+    }
+
+    /**
+     * Like submit, the save is pending until it is written
+     *
+     * @param slotName Slot in the library written by the job (or null)
+     */
+    public void submit(final String slotName, final SaveJob job, final Callback callback) {
+        if (slotName != null) {
+            synchronized (this) {
+                Integer count = pendingSlots.get(slotName);
+                pendingSlots.put(slotName, count == null ? 1 : count + 1);
+            }
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Callback> callbacks = new ArrayList<Callback>();
+                if (callback != null) {
+                    callbacks.add(callback);
+                }
+                boolean success = write(job);
+                if (slotName != null) {
+                    synchronized (SaveQueue.this) {
+                        int count = pendingSlots.get(slotName);
+                        if (count > 1) {
+                            pendingSlots.put(slotName, count - 1);
+                        } else {
+                            pendingSlots.remove(slotName);
+                        }
+                    }
+                }
+                finish(callbacks, success);
+            }
+        });
+    }
+
+    /**
+     * @return Whether a save of the slot is submitted, but not yet written
+     */
+    public synchronized boolean hasPendingSave(String slotName) {
+        return pendingSlots.containsKey(slotName);
+    }
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                SaveJob job;
+                List<Callback> callbacks;
+                synchronized (SaveQueue.this) {
+                    if (pending == null) {
+                        writing = false;
+                        return;
+                    }
+                    job = pending;
+                    callbacks = pendingCallbacks;
+                    pending = null;
+                    pendingCallbacks = new ArrayList<Callback>();
+                }
+
+                finish(callbacks, write(job));
+            }
+        }
+    };
+
+    private static boolean write(SaveJob job) {
+        try {
+            return job.write();
+        } catch (RuntimeException ex) {
+            Log.e(TAG, "Save failed", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Calls the callbacks on the UI thread
+     */
+    private void finish(final List<Callback> callbacks, final boolean success) {
+        if (callbacks.isEmpty()) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : callbacks) {
+                    callback.onSaveFinished(success);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,183 @@
+package de.gehle.pauls.multisweeper.components;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * Sequenced stream of board syncs and reveals for spectators
+ * <p/>
+ * The host numbers every message it sends to the spectators.
+ * Since spectators receive the stream relayed by other spectators (s. SpectatorTree),
+ * messages can arrive twice or out of order after the tree has changed.
+ * They are kept in a reorder buffer until all previous messages have been applied.
+ * <p/>
+ * New spectators first get a snapshot of the current board from the host
+ * and then continue with the messages after the snapshot.
+ * <p/>
+ * Messages ([Byte1][Byte2]...[ByteN]):
+ * [W] = Participant wants to watch (or needs a new snapshot)
+ * [E][Seq1][Seq2][Seq3][Seq4][Message] = Sequenced message, relayed to the own spectators
+ * [K][Seq1][Seq2][Seq3][Seq4][Last][Message] = Part of a snapshot, which contains all messages up to Seq
+ *
+ * @author Andi
+ */
+public class SpectatorStream {
+
+    private static final String TAG = "SpectatorStream";
+
+    public static final byte ACTION_WATCH = 'W';
+    public static final byte ACTION_DELTA = 'E';
+    public static final byte ACTION_SNAPSHOT = 'K';
+
+    public static final int DELTA_HEADER_LENGTH = 5;
+    public static final int SNAPSHOT_HEADER_LENGTH = 6;
+
+    /**
+     * If this many messages are waiting for a missing one, a new snapshot is requested
+     */
+    private static final int MAX_BUFFERED = 64;
+
+    public interface StreamListener {
+        /**
+         * Called for every message in the order the host has sent them
+         */
+        public void onStreamMessage(byte[] message);
+
+        /**
+         * Called if a message got lost, e.g. because a relaying spectator left
+         */
+        public void onStreamBroken();
+    }
+
+    private StreamListener listener;
+
+    /**
+     * Host: Sequence number of the next message
+     * Spectator: Sequence number of the next message to apply
+     */
+    private int nextSeq = 0;
+    private boolean synced = false;
+    private SparseArray<byte[]> reorderBuffer = new SparseArray<byte[]>();
+
+    public SpectatorStream(StreamListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * ============================================================
+     * Host
+     * ============================================================
+     */
+
+    /**
+     * Wraps a message in the next sequence number
+     */
+    public byte[] wrap(byte[] message) {
+        byte[] delta = new byte[message.length + DELTA_HEADER_LENGTH];
+        delta[0] = ACTION_DELTA;
+        writeSeq(delta, nextSeq++);
+        System.arraycopy(message, 0, delta, DELTA_HEADER_LENGTH, message.length);
+        return delta;
+    }
+
+    /**
+     * Wraps a part of a snapshot, which contains everything sent so far
+     *
+     * @param last Whether this is the last part of the snapshot
+     */
+    public byte[] wrapSnapshot(byte[] message, boolean last) {
+        byte[] snapshot = new byte[message.length + SNAPSHOT_HEADER_LENGTH];
+        snapshot[0] = ACTION_SNAPSHOT;
+        writeSeq(snapshot, nextSeq - 1);
+        snapshot[5] = (byte) (last ? 1 : 0);
+        System.arraycopy(message, 0, snapshot, SNAPSHOT_HEADER_LENGTH, message.length);
+        return snapshot;
+    }
+
+    /**
+     * ============================================================
+     * Spectator
+     * ============================================================
+     */
+
+    /**
+     * @param delta Received sequenced message
+     * @return true if the message was new and should be relayed
+     */
+    public boolean receive(byte[] delta) {
+        int seq = readSeq(delta);
+        if ((synced && seq < nextSeq) || reorderBuffer.get(seq) != null) {
+            return false;
+        }
+
+        reorderBuffer.put(seq, unwrap(delta, DELTA_HEADER_LENGTH));
+        if (synced) {
+            drain();
+        }
+
+        if (reorderBuffer.size() > MAX_BUFFERED) {
+            Log.e(TAG, "Missing message " + nextSeq + ", requesting snapshot");
+            synced = false;
+            reorderBuffer.clear();
+            listener.onStreamBroken();
+        }
+        return true;
+    }
+
+    /**
+     * Applies a part of a snapshot. Buffered messages are applied after the last part.
+     */
+    public void receiveSnapshot(byte[] snapshot) {
+        listener.onStreamMessage(unwrap(snapshot, SNAPSHOT_HEADER_LENGTH));
+
+        if (snapshot[5] == 1) {
+            nextSeq = readSeq(snapshot) + 1;
+            synced = true;
+            drain();
+        }
+    }
+
+    public int getBufferedCount() {
+        return reorderBuffer.size();
+    }
+
+    private void drain() {
+        // Drop what the snapshot already contains
+        while (reorderBuffer.size() > 0 && reorderBuffer.keyAt(0) < nextSeq) {
+            reorderBuffer.removeAt(0);
+        }
+
+        byte[] message;
+        while ((message = reorderBuffer.get(nextSeq)) != null) {
+            reorderBuffer.remove(nextSeq);
+            ++nextSeq;
+            listener.onStreamMessage(message);
+        }
+    }
+
+    /**
+     * ============================================================
+     * Helpers
+     * ============================================================
+     */
+
+    private static byte[] unwrap(byte[] message, int headerLength) {
+        byte[] inner = new byte[message.length - headerLength];
+        System.arraycopy(message, headerLength, inner, 0, inner.length);
+        return inner;
+    }
+
+    private static void writeSeq(byte[] message, int seq) {
+        message[1] = (byte) (seq >>> 24);
+        message[2] = (byte) (seq >>> 16);
+        message[3] = (byte) (seq >>> 8);
+        message[4] = (byte) seq;
+    }
+
+    private static int readSeq(byte[] message) {
+        return (message[1] & 0xFF) << 24
+                | (message[2] & 0xFF) << 16
+                | (message[3] & 0xFF) << 8
+                | (message[4] & 0xFF);
+    }
+}
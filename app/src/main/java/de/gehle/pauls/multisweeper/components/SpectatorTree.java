@@ -0,0 +1,115 @@
+package de.gehle.pauls.multisweeper.components;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fan-out tree of the spectators in a room, managed by the host
+ * <p/>
+ * The host is the root and only sends the stream to its first FAN_OUT spectators.
+ * Every spectator relays the stream to at most FAN_OUT further spectators,
+ * so the upload of the host stays the same however many spectators are watching.
+ * <p/>
+ * The tree is stored like a heap: Node 0 is the host, node i is the (i-1)th spectator
+ * and the children of node i are the nodes i * FAN_OUT + 1 ... i * FAN_OUT + FAN_OUT.
+ * <p/>
+ * Message ([Byte1][Byte2]...[ByteN]):
+ * [F][PlayerId][PlayerId]... = Spectators to relay the stream to (Player ids s. ParticipantRegistry)
+ *
+ * @author Andi
+ */
+public class SpectatorTree {
+
+    public static final byte ACTION_RELAY = 'F';
+
+    public static final int FAN_OUT = 2;
+
+    private final List<String> spectators = new ArrayList<String>();
+
+    /**
+     * @return false if the participant already was a spectator
+     */
+    public boolean add(String participantId) {
+        if (spectators.contains(participantId)) {
+            return false;
+        }
+        spectators.add(participantId);
+        return true;
+    }
+
+    /**
+     * Removes a spectator, its subtree moves up by one position
+     *
+     * @return false if the participant wasn't a spectator
+     */
+    public boolean remove(String participantId) {
+        return spectators.remove(participantId);
+    }
+
+    public boolean contains(String participantId) {
+        return spectators.contains(participantId);
+    }
+
+    public boolean isEmpty() {
+        return spectators.isEmpty();
+    }
+
+    public List<String> getSpectators() {
+        return spectators;
+    }
+
+    /**
+     * @return Spectators the host sends the stream to
+     */
+    public List<String> getHostChildren() {
+        return getChildren(0);
+    }
+
+    /**
+     * @return Spectators the given spectator relays the stream to
+     */
+    public List<String> getChildrenOf(String participantId) {
+        int index = spectators.indexOf(participantId);
+        if (index < 0) {
+            return new ArrayList<String>(0);
+        }
+        return getChildren(index + 1);
+    }
+
+    private List<String> getChildren(int node) {
+        List<String> children = new ArrayList<String>(FAN_OUT);
+        for (int child = node * FAN_OUT + 1; child <= node * FAN_OUT + FAN_OUT; ++child) {
+            if (child - 1 >= spectators.size()) {
+                break;
+            }
+            children.add(spectators.get(child - 1));
+        }
+        return children;
+    }
+
+    /**
+     * ============================================================
+     * Messages
+     * ============================================================
+     */
+
+    public static byte[] encodeChildren(List<String> children, ParticipantRegistry registry) {
+        byte[] message = new byte[children.size() + 1];
+        message[0] = ACTION_RELAY;
+        for (int i = 0; i < children.size(); ++i) {
+            message[i + 1] = (byte) registry.getId(children.get(i));
+        }
+        return message;
+    }
+
+    public static List<String> decodeChildren(byte[] message, ParticipantRegistry registry) {
+        List<String> children = new ArrayList<String>(message.length - 1);
+        for (int i = 1; i < message.length; ++i) {
+            String child = registry.getParticipantId(message[i]);
+            if (child != null) {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+}
@@ -0,0 +1,97 @@
+package de.gehle.pauls.multisweeper.components;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.gehle.pauls.multisweeper.engine.BoardSnapshot;
+import de.gehle.pauls.multisweeper.engine.Tile;
+
+/**
+ * Renders small cover images of gameboards (e.g. for saved games) on a background thread
+ * <p/>
+ * Every tile becomes a block of pixels in its LOD color (s. TileAtlas.getLodColor),
+ * so the image is made from the packed tiles of a BoardSnapshot without drawing any views.
+ * The image has a fixed size and uses RGB_565. The last image is cached per board version.
+ *
+ * @author Andi
+ */
+public class ThumbnailGenerator {
+
+    public final static int WIDTH = 256;
+    public final static int HEIGHT = 144;
+
+    /**
+     * From this size of a tile on, the tiles are separated by a line of background
+     */
+    private final static float GRID_TILE_SIZE = 4;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final int backgroundColor;
+
+    private long cachedSeed;
+    private long cachedVersion = -1;
+    private Future<Bitmap> cached;
+
+    public ThumbnailGenerator(int backgroundColor) {
+        this.backgroundColor = backgroundColor;
+    }
+
+    /**
+     * @return The image of the snapshot, which is rendered in the background
+     * (or the same one as before, if the gameboard hasn't changed)
+     */
+    public synchronized Future<Bitmap> render(final BoardSnapshot snapshot) {
+        if (cached != null && cachedVersion == snapshot.getVersion() && cachedSeed == snapshot.getSeed()) {
+            return cached;
+        }
+        cachedSeed = snapshot.getSeed();
+        cachedVersion = snapshot.getVersion();
+        cached = executor.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return draw(snapshot);
+            }
+        });
+        return cached;
+    }
+
+    /**
+     * Stops the background thread after the pending images, e.g. when the activity is destroyed
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * The gameboard is scaled to fit and centered
+     */
+    private Bitmap draw(BoardSnapshot snapshot) {
+        int rows = snapshot.getRows();
+        int cols = snapshot.getCols();
+        float size = Math.min(WIDTH / (float) cols, HEIGHT / (float) rows);
+        int left = (int) ((WIDTH - cols * size) / 2);
+        int top = (int) ((HEIGHT - rows * size) / 2);
+        boolean grid = size >= GRID_TILE_SIZE;
+
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; ++y) {
+            int row = (int) ((y - top) / size);
+            boolean rowGap = grid && (int) ((y + 1 - top) / size) != row;
+            for (int x = 0; x < WIDTH; ++x) {
+                int col = (int) ((x - left) / size);
+                boolean colGap = grid && (int) ((x + 1 - left) / size) != col;
+                if (y < top || x < left || row >= rows || col >= cols || rowGap || colGap) {
+                    pixels[y * WIDTH + x] = backgroundColor;
+                } else {
+                    short tile = snapshot.get(row, col);
+                    pixels[y * WIDTH + x] = TileAtlas.getLodColor(Tile.getState(tile), Tile.getNrSurroundingMines(tile));
+                }
+            }
+        }
+        return Bitmap.createBitmap(pixels, WIDTH, HEIGHT, Bitmap.Config.RGB_565);
+    }
+}
@@ -0,0 +1,264 @@
+package de.gehle.pauls.multisweeper.components;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+import de.gehle.pauls.multisweeper.R;
+import de.gehle.pauls.multisweeper.engine.Tile;
+
+/**
+ * Pre-drawn images of all tiles in one bitmap
+ * <p/>
+ * Every combination of tile state, player and number is drawn once per tile size,
+ * so drawing a tile is just copying a part of the atlas. Atlases are shared between all gameboards.
+ * <p/>
+ * Slots: [Covered][Covered pressed][Number 0-8][Flag per player][Question mark per player][Mine]
+ * [Bad flag with number 0-8 per player][Good flag per player][Exploded mine]
+ *
+ * @author Andi
+ */
+public class TileAtlas {
+
+    /**
+     * Drawables support for 3 different players
+     */
+    public final static int PLAYERS = 3;
+
+    private final static int NUMBERS = 9;
+
+    private final static int SLOT_COVERED = 0;
+    private final static int SLOT_PRESSED = 1;
+    private final static int SLOT_NUMBER = 2;
+    private final static int SLOT_FLAG = SLOT_NUMBER + NUMBERS;
+    private final static int SLOT_UNKNOWN = SLOT_FLAG + PLAYERS;
+    private final static int SLOT_MINE = SLOT_UNKNOWN + PLAYERS;
+    private final static int SLOT_BAD_FLAG = SLOT_MINE + 1;
+    private final static int SLOT_GOOD_FLAG = SLOT_BAD_FLAG + PLAYERS * NUMBERS;
+    private final static int SLOT_EXPLODED_MINE = SLOT_GOOD_FLAG + PLAYERS;
+    private final static int SLOTS = SLOT_EXPLODED_MINE + 1;
+
+    private final static int SLOTS_PER_ROW = 8;
+
+    private final static int[] textColors = {
+            Color.CYAN, Color.GREEN, Color.RED, Color.LTGRAY,
+            Color.BLUE, Color.WHITE, Color.YELLOW, Color.GRAY
+    };
+
+    private final static int badFlagTextColor = Color.rgb(0xe9, 0xe9, 0xe9);
+
+    private final static int LOD_COVERED = Color.rgb(0x55, 0x55, 0x55);
+    private final static int LOD_EMPTY = Color.rgb(0x11, 0x11, 0x11);
+    private final static int LOD_FLAG = Color.rgb(0xff, 0x88, 0x00);
+    private final static int LOD_UNKNOWN = Color.rgb(0xaa, 0x88, 0xff);
+    private final static int LOD_MINE = Color.rgb(0xe9, 0xe9, 0xe9);
+    private final static int LOD_EXPLODED_MINE = Color.rgb(0xff, 0x00, 0x00);
+
+    private final static String[] numbers = {"0", "1", "2", "3", "4", "5", "6", "7", "8"};
+
+    /**
+     * Recently used atlases (e.g. of the last zoom levels), bounded by the size of their bitmaps.
+     * Evicted atlases stay usable as long as a view holds them.
+     */
+    private static final int CACHE_BYTES = 8 * 1024 * 1024;
+
+    private static final LruCache<Integer, TileAtlas> atlases = new LruCache<Integer, TileAtlas>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(Integer key, TileAtlas atlas) {
+            return atlas.bitmap.getByteCount();
+        }
+    };
+
+    private final int tileSize;
+    private final Bitmap bitmap;
+
+    /**
+     * @param tileSize    Width and height of a tile in pixels
+     * @param tilePadding Space between the tiles in pixels
+     * @return Atlas for the tile size, drawn on first use (or after it was evicted)
+     */
+    public static synchronized TileAtlas get(Resources res, int tileSize, int tilePadding) {
+        int key = tileSize << 8 | tilePadding;
+        TileAtlas atlas = atlases.get(key);
+        if (atlas == null) {
+            atlas = new TileAtlas(res, tileSize, tilePadding);
+            atlases.put(key, atlas);
+        }
+        return atlas;
+    }
+
+    private TileAtlas(Resources res, int tileSize, int tilePadding) {
+        this.tileSize = tileSize;
+
+        int rows = (SLOTS + SLOTS_PER_ROW - 1) / SLOTS_PER_ROW;
+        bitmap = Bitmap.createBitmap(SLOTS_PER_ROW * tileSize, rows * tileSize, Bitmap.Config.ARGB_8888);
+        new Baker(res, new Canvas(bitmap), tileSize, tilePadding).bakeAll();
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @param playerId Player who placed the marker (Other than 0 - 2 is drawn like 0)
+     * @param mines    Number of surrounding mines
+     * @param pressed  Whether the finger is on the tile
+     * @return Slot of the image for the tile
+     */
+    public static int getSlot(Tile.TileState state, int playerId, int mines, boolean pressed) {
+        if (playerId < 0 || playerId >= PLAYERS) {
+            playerId = 0;
+        }
+        switch (state) {
+            case NUMBER:
+                return SLOT_NUMBER + mines;
+            case FLAG:
+                return SLOT_FLAG + playerId;
+            case UNKNOWN:
+                return SLOT_UNKNOWN + playerId;
+            case MINE:
+                return SLOT_MINE;
+            case BAD_FLAG:
+                return SLOT_BAD_FLAG + playerId * NUMBERS + mines;
+            case GOOD_FLAG:
+                return SLOT_GOOD_FLAG + playerId;
+            case EXPLODED_MINE:
+                return SLOT_EXPLODED_MINE;
+            default:
+                return pressed ? SLOT_PRESSED : SLOT_COVERED;
+        }
+    }
+
+    /**
+     * Draws the image of a slot with its top left corner at (left, top)
+     * <p/>
+     * The atlas is shared by all gameboards, so the rects come from the caller (e.g. its render thread)
+     *
+     * @param paint E.g. with bitmap filtering, if the canvas is scaled (or null)
+     * @param src   Scratch rect for the part of the atlas
+     * @param dst   Scratch rect for the tile on the canvas
+     */
+    public void draw(Canvas canvas, int slot, int left, int top, Paint paint, Rect src, Rect dst) {
+        int atlasLeft = (slot % SLOTS_PER_ROW) * tileSize;
+        int atlasTop = (slot / SLOTS_PER_ROW) * tileSize;
+        src.set(atlasLeft, atlasTop, atlasLeft + tileSize, atlasTop + tileSize);
+        dst.set(left, top, left + tileSize, top + tileSize);
+        canvas.drawBitmap(bitmap, src, dst, paint);
+    }
+
+    /**
+     * @return Color of a tile drawn as a single pixel (Gameboard zoomed far out)
+     */
+    public static int getLodColor(Tile.TileState state, int mines) {
+        switch (state) {
+            case NUMBER:
+                return mines > 0 ? textColors[mines - 1] : LOD_EMPTY;
+            case FLAG:
+            case GOOD_FLAG:
+                return LOD_FLAG;
+            case UNKNOWN:
+                return LOD_UNKNOWN;
+            case MINE:
+            case BAD_FLAG:
+                return LOD_MINE;
+            case EXPLODED_MINE:
+                return LOD_EXPLODED_MINE;
+            default:
+                return LOD_COVERED;
+        }
+    }
+
+    /**
+     * Draws every slot of a new atlas
+     */
+    private static class Baker {
+
+        private final Canvas canvas;
+        private final int tileSize;
+        private final int tilePadding;
+
+        private final Drawable tileNormal;
+        private final Drawable tileDisabled;
+        private final Drawable tilePressed;
+        private final Drawable mine;
+        private final Drawable mineExploded;
+        private final Drawable[] flags = new Drawable[PLAYERS];
+        private final Drawable[] questionMarks = new Drawable[PLAYERS];
+        private final Drawable[] badFlags = new Drawable[PLAYERS];
+
+        private final Paint numberPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Rect bounds = new Rect();
+
+        Baker(Resources res, Canvas canvas, int tileSize, int tilePadding) {
+            this.canvas = canvas;
+            this.tileSize = tileSize;
+            this.tilePadding = tilePadding;
+
+            tileNormal = res.getDrawable(R.drawable.btn_default_normal_holo_dark);
+            tileDisabled = res.getDrawable(R.drawable.btn_default_disabled_holo_dark);
+            tilePressed = res.getDrawable(R.drawable.btn_default_pressed_holo_dark);
+            mine = res.getDrawable(R.drawable.mine);
+            mineExploded = res.getDrawable(R.drawable.mine_exploded);
+            flags[0] = res.getDrawable(R.drawable.flag_player0);
+            flags[1] = res.getDrawable(R.drawable.flag_player1);
+            flags[2] = res.getDrawable(R.drawable.flag_player2);
+            questionMarks[0] = res.getDrawable(R.drawable.questionmark_player0);
+            questionMarks[1] = res.getDrawable(R.drawable.questionmark_player1);
+            questionMarks[2] = res.getDrawable(R.drawable.questionmark_player2);
+            badFlags[0] = res.getDrawable(R.drawable.badflag_player0);
+            badFlags[1] = res.getDrawable(R.drawable.badflag_player1);
+            badFlags[2] = res.getDrawable(R.drawable.badflag_player2);
+
+            numberPaint.setTextAlign(Paint.Align.CENTER);
+            numberPaint.setTextSize(tileSize / 2);
+        }
+
+        void bakeAll() {
+            bake(SLOT_COVERED, tileNormal, null, 0, 0);
+            bake(SLOT_PRESSED, tilePressed, null, 0, 0);
+            for (int mines = 0; mines < NUMBERS; ++mines) {
+                bake(SLOT_NUMBER + mines, tileDisabled, null, mines, mines > 0 ? textColors[mines - 1] : 0);
+            }
+            for (int player = 0; player < PLAYERS; ++player) {
+                bake(SLOT_FLAG + player, tileNormal, flags[player], 0, 0);
+                bake(SLOT_UNKNOWN + player, tileNormal, questionMarks[player], 0, 0);
+                bake(SLOT_GOOD_FLAG + player, tileDisabled, flags[player], 0, 0);
+                for (int mines = 0; mines < NUMBERS; ++mines) {
+                    bake(SLOT_BAD_FLAG + player * NUMBERS + mines, tileDisabled, badFlags[player], mines, badFlagTextColor);
+                }
+            }
+            bake(SLOT_MINE, tileDisabled, mine, 0, 0);
+            bake(SLOT_EXPLODED_MINE, tileDisabled, mineExploded, 0, 0);
+        }
+
+        /**
+         * @param mines     Number drawn on the tile, if > 0
+         * @param textColor Color of the number
+         */
+        private void bake(int slot, Drawable background, Drawable icon, int mines, int textColor) {
+            int left = (slot % SLOTS_PER_ROW) * tileSize;
+            int top = (slot / SLOTS_PER_ROW) * tileSize;
+            bounds.set(left + tilePadding, top + tilePadding, left + tileSize - tilePadding, top + tileSize - tilePadding);
+
+            background.setBounds(bounds);
+            background.draw(canvas);
+
+            if (icon != null) {
+                int inset = tileSize / 8;
+                icon.setBounds(bounds.left + inset, bounds.top + inset, bounds.right - inset, bounds.bottom - inset);
+                icon.draw(canvas);
+            }
+
+            if (mines > 0) {
+                numberPaint.setColor(textColor);
+                float baseline = bounds.exactCenterY() - (numberPaint.descent() + numberPaint.ascent()) / 2;
+                canvas.drawText(numbers[mines], bounds.exactCenterX(), baseline, numberPaint);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package de.gehle.pauls.multisweeper.engine;
+
+import java.util.Arrays;
+
+/**
+ * Tiles changed by one operation of the game (e.g. a move or the game over)
+ * <p/>
+ * Every tile is contained once, together with the rectangle around all changed tiles.
+ * The game numbers its change sets, so the version tells which changes are already known.
+ * Besides the positions it contains the packed tiles (s. Tile.pack) at the end of the operation,
+ * so it can be used without the game, e.g. by another thread.
+ * A change set doesn't change anymore after it was delivered to the observer.
+ *
+ * @author Andi
+ */
+public class BoardChangeSet {
+
+    private final long version;
+    private final int cols;
+
+    private int[] cells = new int[16];
+    private short[] values;
+    private int size = 0;
+
+    private int top = Integer.MAX_VALUE;
+    private int left = Integer.MAX_VALUE;
+    private int bottom = -1;
+    private int right = -1;
+
+    BoardChangeSet(long version, int cols) {
+        this.version = version;
+        this.cols = cols;
+    }
+
+    /**
+     * Adds a tile, the game makes sure it isn't contained already
+     */
+    void add(int row, int col) {
+        if (size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+        }
+        cells[size++] = row * cols + col;
+
+        top = Math.min(top, row);
+        left = Math.min(left, col);
+        bottom = Math.max(bottom, row);
+        right = Math.max(right, col);
+    }
+
+    /**
+     * Stores the current state of all changed tiles, before the change set is delivered
+     */
+    void seal(GameBoard gameBoard) {
+        values = new short[size];
+        for (int i = 0; i < size; ++i) {
+            values[i] = gameBoard.getTile(getRow(i), getCol(i)).pack();
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getRow(int index) {
+        return cells[index] / cols;
+    }
+
+    public int getCol(int index) {
+        return cells[index] % cols;
+    }
+
+    /**
+     * @return Index (row * cols + col) of the changed tile
+     */
+    public int getCell(int index) {
+        return cells[index];
+    }
+
+    /**
+     * @return Packed state of the changed tile (s. Tile.pack)
+     */
+    public short getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Bounding rectangle of the changed tiles (all inclusive)
+     */
+    public int getTop() {
+        return top;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    public int getRight() {
+        return right;
+    }
+}
@@ -0,0 +1,57 @@
+package de.gehle.pauls.multisweeper.engine;
+
+/**
+ * What the user sees of a gameboard at one point of time, packed into one value per tile (s. Tile.pack)
+ * <p/>
+ * A snapshot never changes, so it can be used by other threads while the game goes on.
+ * It includes all change sets up to its version (s. BoardChangeSet).
+ * Version and seed together identify the content of a snapshot.
+ *
+ * @author Andi
+ */
+public class BoardSnapshot {
+
+    private final long version;
+    private final long seed;
+    private final int rows;
+    private final int cols;
+    private final short[] tiles;
+
+    BoardSnapshot(long version, long seed, int rows, int cols, short[] tiles) {
+        this.version = version;
+        this.seed = seed;
+        this.rows = rows;
+        this.cols = cols;
+        this.tiles = tiles;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Seed of the mine layout (s. GameBoard.getSeed)
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public short get(int row, int col) {
+        return tiles[row * cols + col];
+    }
+
+    /**
+     * @return Copy of the packed tiles (row * cols + col), e.g. to apply later change sets
+     */
+    public short[] copyTiles() {
+        return tiles.clone();
+    }
+}
@@ -39,6 +39,10 @@ public class Counter {
         setCounter(counter - 1);
     }
 
+    public int getCounter() {
+        return counter;
+    }
+
     public void setCounter(int value) {
         if (value >= min && value <= max) {
             counter = value;
@@ -5,6 +5,8 @@ import android.util.Log;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Random;
+
 /**
  * Game
  */
@@ -16,16 +18,32 @@ public class Game {
     private static final String TAG = "GameClass";
 
     private MinesweeperObserver observer;
+    private ObserverNotifier notifier;
 
     private Timer timer;
     private Counter mineCounter;
     private GameBoard gameBoard;
     private Score score;
+    private MoveLog moveLog = new MoveLog();
+
+    /**
+     * Changed tiles are collected while an operation runs and delivered at its end (s. BoardChangeSet)
+     */
+    private long boardVersion = 0;
+    private BoardChangeSet changes = null;
+    private boolean[] changed = new boolean[0];
+    private int changeDepth = 0;
 
     private int nrOfPlayers;
 
     private int currentPlayer;
 
+    /**
+     * Player id of reveals, which nobody gets points for (e.g. snapshots for spectators).
+     * Fits into the 4 bits of a player in messages (s. RevealBuffer)
+     */
+    public static final int NO_PLAYER = 0x0F;
+
     public enum GameState {
         PREPARED,
         RUNNING,
@@ -54,21 +72,48 @@ public class Game {
      */
     public Game(MinesweeperObserver observer, int rows, int cols, int mines, int nrOfPlayers) {
         this.observer = observer;
+        notifier = new ObserverNotifier(observer);
         this.nrOfPlayers = nrOfPlayers;
-        timer = new Timer(observer);
-        mineCounter = new CounterDown(observer, mines);
+        timer = new Timer(notifier);
+        mineCounter = new CounterDown(notifier, mines);
         gameBoard = new GameBoard(this, rows, cols, mines);
         score = new Score(nrOfPlayers);
         gameState = GameState.PREPARED;
     }
 
+    /**
+     * Game constructor for a given mine layout (Race mode in multiplayer)
+     *
+     * @param seed Seed for placing the mines (s. GameBoard.setupTiles)
+     */
+    public Game(MinesweeperObserver observer, int rows, int cols, int mines, int nrOfPlayers, long seed) {
+        this(observer, rows, cols, mines, nrOfPlayers);
+        gameBoard.setSeed(seed);
+    }
+
     /**
      * Constructor for loading save-games
      */
     public Game(MinesweeperObserver observer, byte[] data) {
+        this(observer, data, false);
+    }
+
+    /**
+     * Constructor for loading save-games
+     *
+     * @param paused Whether the clock stays paused until resume, so no timer callback is posted
+     *               (e.g. to load the game on a background thread)
+     */
+    public Game(MinesweeperObserver observer, byte[] data, boolean paused) {
         this.observer = observer;
+        notifier = new ObserverNotifier(observer);
         //Save games only for singleplayer
         this.nrOfPlayers = 1;
+        if (paused) {
+            //Taken over by loadFromJson
+            timer = new Timer(notifier);
+            timer.pause();
+        }
         loadFromJson(new String(data));
         score = new Score(nrOfPlayers);
         setGameState(GameState.RUNNING);
@@ -86,6 +131,7 @@ public class Game {
                 String.valueOf(row) + ":" + String.valueOf(col));
 
         currentPlayer = playerId;
+        moveLog.add(false, row, col);
 
         //Start game on first click
         if (gameState == GameState.PREPARED) {
@@ -93,6 +139,8 @@ public class Game {
             setGameState(GameState.RUNNING);
         }
 
+        beginChanges();
+
         /**
          * If mine uncovered gameboard will set gamestate to game_over
          */
@@ -104,6 +152,8 @@ public class Game {
         } else if (gameBoard.allUncovered()) {
             endGame(GameState.GAME_WON);
         }
+
+        endChanges();
     }
 
     /**
@@ -115,12 +165,15 @@ public class Game {
      */
     public void playerMoveAlt(int playerId, int row, int col) {
         Log.d(TAG, "LongClicked player: " + playerId);
+        moveLog.add(true, row, col);
+        beginChanges();
         Tile.TileState state = gameBoard.swapMarker(playerId, row, col);
         if (state == Tile.TileState.FLAG) {
             mineCounter.dec();
         } else if (state == Tile.TileState.UNKNOWN) {
             mineCounter.inc();
         }
+        endChanges();
     }
 
     /**
@@ -139,7 +192,9 @@ public class Game {
             score.reset(currentPlayer);
         }
         timer.stop();
+        beginChanges();
         gameBoard.uncoverAll();
+        endChanges();
         setGameState(state);
     }
 
@@ -152,6 +207,11 @@ public class Game {
         timer.reset();
         mineCounter.reset();
         gameBoard.reset();
+        //New game, new mine layout
+        gameBoard.setSeed(new Random().nextLong());
+        //All tiles changed without a change set, so older snapshots are outdated
+        ++boardVersion;
+        moveLog.clear();
         setGameState(GameState.PREPARED);
 
         /**
@@ -178,6 +238,13 @@ public class Game {
         return gameBoard.toBytes();
     }
 
+    /**
+     * @return Gameboard without the mine layout (Fog mode in multiplayer)
+     */
+    public byte[] exportFoggedGameBoard() {
+        return gameBoard.toFogBytes();
+    }
+
     public int getNrOfPlayers() {
         return nrOfPlayers;
     }
@@ -191,11 +258,68 @@ public class Game {
         return timer.hasStarted();
     }
 
+    /**
+     * Stops the clock while the game isn't visible, the game itself goes on
+     */
+    public void pause() {
+        timer.pause();
+    }
+
+    public void resume() {
+        timer.resume();
+    }
+
+    /**
+     * E.g. to drive the clocks of many games by one TimingWheel (default: Handler of the creating thread)
+     */
+    public void setTimerTicker(Timer.Ticker ticker) {
+        timer.setTicker(ticker);
+    }
+
+    /**
+     * @return Time of the game in milliseconds
+     */
+    public long getMillisPassed() {
+        return timer.getMillisPassed();
+    }
+
+    /**
+     * E.g. for a game recovered from its moves (s. MoveJournal)
+     */
+    public void setMillisPassed(long millis) {
+        timer.setMillisPassed(millis);
+    }
+
+    /**
+     * @return Seed of the mine layout (s. GameBoard.setupTiles)
+     */
+    public long getSeed() {
+        return gameBoard.getSeed();
+    }
+
     void setGameState(GameState state) {
+        //Observers should see the board the new state belongs to
+        flushChanges();
         gameState = state;
         observer.onGameStateChanged(gameState);
     }
 
+    public GameState getGameState() {
+        return gameState;
+    }
+
+    public MoveLog getMoveLog() {
+        return moveLog;
+    }
+
+    public int getUncoveredCount() {
+        return gameBoard.getUncoveredCount();
+    }
+
+    public int getFlagCount() {
+        return getMines() - mineCounter.getCounter();
+    }
+
     public int getCurrentPlayer() {
         return currentPlayer;
     }
@@ -205,7 +329,7 @@ public class Game {
                 playerId,
                 getCols() * getRows(),
                 getMines(),
-                timer.getSecondsPassed());
+                timer.getMillisPassed());
     }
 
     public int getPlace(int playerId) {
@@ -219,7 +343,72 @@ public class Game {
      * @param col Col of changed tile
      */
     public void onTileStateChanged(int row, int col) {
-        observer.updateTile(row, col);
+        int cols = gameBoard.getCols();
+        if (changed.length != gameBoard.getRows() * cols) {
+            changed = new boolean[gameBoard.getRows() * cols];
+        }
+
+        int index = row * cols + col;
+        if (!changed[index]) {
+            changed[index] = true;
+            if (changes == null) {
+                changes = new BoardChangeSet(++boardVersion, cols);
+            }
+            changes.add(row, col);
+        }
+
+        if (changeDepth == 0) {
+            flushChanges();
+        }
+    }
+
+    /**
+     * Collects all tile changes until endChanges, to deliver them at once
+     * (Calls can be nested, e.g. to apply several messages at once)
+     */
+    public void beginChanges() {
+        ++changeDepth;
+        notifier.hold();
+    }
+
+    public void endChanges() {
+        if (--changeDepth == 0) {
+            flushChanges();
+        }
+        notifier.release();
+    }
+
+    private void flushChanges() {
+        if (changes == null) {
+            return;
+        }
+        BoardChangeSet delivered = changes;
+        changes = null;
+        for (int i = 0; i < delivered.size(); ++i) {
+            changed[delivered.getCell(i)] = false;
+        }
+        delivered.seal(gameBoard);
+        observer.onBoardChanged(delivered);
+    }
+
+    /**
+     * @return Version of the last delivered change set
+     */
+    public long getBoardVersion() {
+        return boardVersion;
+    }
+
+    /**
+     * @return What the user sees of the gameboard right now
+     */
+    public BoardSnapshot createSnapshot() {
+        short[] tiles = new short[getRows() * getCols()];
+        for (int row = 0; row < getRows(); ++row) {
+            for (int col = 0; col < getCols(); ++col) {
+                tiles[row * getCols() + col] = gameBoard.getTile(row, col).pack();
+            }
+        }
+        return new BoardSnapshot(boardVersion, gameBoard.getSeed(), getRows(), getCols(), tiles);
     }
 
     /**
@@ -244,6 +433,10 @@ public class Game {
             JSONObject obj = new JSONObject();
             obj.put("gameBoard", gameBoard.toJson());
             obj.put("timeInSeconds", timer.getSecondsPassed());
+            obj.put("timeInMillis", timer.getMillisPassed());
+            //Identify the game, e.g. to merge conflicting saves (s. SaveGameMerger)
+            obj.put("seed", gameBoard.getSeed());
+            obj.put("moves", moveLog.toJson());
             return obj.toString();
         } catch (JSONException ex) {
             ex.printStackTrace();
@@ -257,13 +450,20 @@ public class Game {
     public void loadFromJson(String json) {
         if (json == null || json.trim().equals("")) return;
 
+        //The observer only gets the results (e.g. of the recalculated counter)
+        notifier.hold();
         try {
             JSONObject obj = new JSONObject(json);
 
             gameBoard = GameBoard.fromJson(this, obj.getJSONObject("gameBoard").toString());
+            //Older saves don't know their seed and moves
+            if (obj.has("seed")) {
+                gameBoard.setSeed(obj.getLong("seed"));
+            }
+            moveLog = obj.has("moves") ? MoveLog.fromJson(obj.getJSONArray("moves")) : new MoveLog();
 
             //Recalculate counter value
-            mineCounter = new CounterDown(observer, gameBoard.getMines());
+            mineCounter = new CounterDown(notifier, gameBoard.getMines());
             Tile[][] tiles = gameBoard.getTiles();
             for (Tile[] rowTiles : tiles) {
                 for (Tile tile : rowTiles) {
@@ -273,8 +473,24 @@ public class Game {
                 }
             }
 
-            timer = new Timer(observer);
-            timer.setSecondsPassed(obj.getInt("timeInSeconds"));
+            //Keeps the state of the clock of a loaded game
+            Timer oldTimer = timer;
+            timer = new Timer(notifier);
+            boolean paused = false;
+            if (oldTimer != null) {
+                paused = oldTimer.isPaused();
+                oldTimer.stop();
+                timer.setTicker(oldTimer.getTicker());
+            }
+            //Older saves only contain seconds
+            if (obj.has("timeInMillis")) {
+                timer.setMillisPassed(obj.getLong("timeInMillis"));
+            } else {
+                timer.setSecondsPassed(obj.getInt("timeInSeconds"));
+            }
+            if (paused) {
+                timer.pause();
+            }
             timer.start();
 
         } catch (JSONException ex) {
@@ -283,6 +499,8 @@ public class Game {
         } catch (NumberFormatException ex) {
             ex.printStackTrace();
             throw new RuntimeException("Save data has an invalid number in it: " + json, ex);
+        } finally {
+            notifier.release();
         }
     }
 
@@ -292,8 +510,55 @@ public class Game {
      * ============================================================
      */
 
+    /**
+     * Applies a tile state the host has computed (Fog mode in multiplayer)
+     *
+     * @param playerId           Player who did the move (or NO_PLAYER)
+     * @param row                Row of the changed tile
+     * @param col                Col of the changed tile
+     * @param state              New state of the tile
+     * @param nrSurroundingMines Number shown on the tile
+     * @param markerPlayerId     Player who placed the marker on the tile
+     */
+    public void applyReveal(int playerId, int row, int col, Tile.TileState state, int nrSurroundingMines, int markerPlayerId) {
+        boolean credited = playerId != NO_PLAYER;
+        if (credited) {
+            currentPlayer = playerId;
+        }
+
+        Tile.TileState oldState = gameBoard.revealTile(row, col, state, nrSurroundingMines, markerPlayerId);
+        if (oldState == state) {
+            return;
+        }
+
+        if (credited && state == Tile.TileState.NUMBER && (oldState == Tile.TileState.COVERED || oldState == Tile.TileState.UNKNOWN)) {
+            score.inc(playerId, 1);
+        }
+        if (state == Tile.TileState.FLAG) {
+            mineCounter.dec();
+        } else if (oldState == Tile.TileState.FLAG && state == Tile.TileState.UNKNOWN) {
+            mineCounter.inc();
+        }
+    }
+
+    /**
+     * Applies a game state the host has computed (Fog mode in multiplayer)
+     */
+    public void applyGameState(GameState state) {
+        if (state == gameState || (state != GameState.GAME_WON && state != GameState.GAME_LOST)) {
+            return;
+        }
+        if (state == GameState.GAME_LOST) {
+            score.reset(currentPlayer);
+        }
+        timer.stop();
+        setGameState(state);
+    }
+
     public void setGameBoard(GameBoard gameBoard) {
+        flushChanges();
         this.gameBoard = gameBoard;
+        ++boardVersion;
         timer.reset();
         mineCounter.reset();
         if (gameState != GameState.RUNNING) {
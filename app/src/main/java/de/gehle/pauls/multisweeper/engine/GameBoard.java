@@ -5,6 +5,7 @@ import android.util.Log;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Random;
 
@@ -25,6 +26,17 @@ public class GameBoard {
     private int nrOfCoveredFields;
     private boolean hitMine;
 
+    /**
+     * Seed for placing the mines, equal seeds and first clicks lead to equal gameboards
+     */
+    private long seed = new Random().nextLong();
+
+    /**
+     * Tiles (row * cols + col) still to uncover, instead of a recursion which could overflow the stack on big boards
+     */
+    private int[] uncoverStack = new int[64];
+    private int uncoverStackSize = 0;
+
     /**
      * Action for travers surrounding tiles
      * (Some simple version of a visitor-pattern)
@@ -69,7 +81,7 @@ public class GameBoard {
      * @param clickedCol Col of first clicked tile
      */
     public void setupTiles(int clickedRow, int clickedCol) {
-        Random random = new Random();
+        Random random = new Random(seed);
         int mineRow;
         int mineCol;
 
@@ -99,11 +111,31 @@ public class GameBoard {
      * @return Amount of field which were uncovered (If not uncoverable = 0)
      */
     public int uncover(int row, int col) {
-        if (!tiles[row][col].isUncoverable() && !tiles[row][col].canUncoverSurroundings()) {
-            return 0;
+        int oldNrOfCoveredFields = nrOfCoveredFields;
+
+        uncoverTile(row, col);
+        while (uncoverStackSize > 0) {
+            int index = uncoverStack[--uncoverStackSize];
+            int nextRow = index / cols;
+            int nextCol = index % cols;
+
+            //Might have been uncovered in the meantime
+            Tile.TileState state = tiles[nextRow][nextCol].getState();
+            if (state == Tile.TileState.COVERED || state == Tile.TileState.UNKNOWN) {
+                uncoverTile(nextRow, nextCol);
+            }
         }
 
-        int oldNrOfCoveredFields = nrOfCoveredFields;
+        return oldNrOfCoveredFields - nrOfCoveredFields;
+    }
+
+    /**
+     * Uncovers a single tile, surrounding tiles to uncover are put on the uncoverStack
+     */
+    private void uncoverTile(int row, int col) {
+        if (!tiles[row][col].isUncoverable() && !tiles[row][col].canUncoverSurroundings()) {
+            return;
+        }
 
         Tile.TileState state = tiles[row][col].getState();
         if ((state == Tile.TileState.COVERED || state == Tile.TileState.UNKNOWN) && !tiles[row][col].isMine()) {
@@ -133,8 +165,13 @@ public class GameBoard {
         else if (tiles[row][col].isEmpty()) {
             traversSurroundingTilesOf(row, col, Action.UNCOVER);
         }
+    }
 
-        return oldNrOfCoveredFields - nrOfCoveredFields;
+    private void pushUncover(int row, int col) {
+        if (uncoverStackSize == uncoverStack.length) {
+            uncoverStack = Arrays.copyOf(uncoverStack, uncoverStackSize * 2);
+        }
+        uncoverStack[uncoverStackSize++] = row * cols + col;
     }
 
     /**
@@ -169,6 +206,25 @@ public class GameBoard {
         return tile.getState();
     }
 
+    /**
+     * Shows a tile state received from the host (Fog mode in multiplayer)
+     *
+     * @param row                Row of the tile
+     * @param col                Col of the tile
+     * @param state              New state of the tile
+     * @param nrSurroundingMines Number shown on the tile
+     * @param playerId           Player who placed the marker on the tile
+     * @return Previous state of the tile
+     */
+    public Tile.TileState revealTile(int row, int col, Tile.TileState state, int nrSurroundingMines, int playerId) {
+        Tile tile = getTile(row, col);
+        Tile.TileState oldState = tile.getState();
+
+        tile.reveal(state, nrSurroundingMines, playerId);
+        game.onTileStateChanged(row, col);
+        return oldState;
+    }
+
     public boolean hitMine() {
         return hitMine;
     }
@@ -177,6 +233,13 @@ public class GameBoard {
         return nrOfCoveredFields == 0;
     }
 
+    /**
+     * @return Amount of uncovered fields without mines
+     */
+    public int getUncoveredCount() {
+        return rows * cols - mines - nrOfCoveredFields;
+    }
+
     /**
      * Travers the surrounding tiles of a given tile at (row, col)
      *
@@ -198,7 +261,7 @@ public class GameBoard {
                 switch (action) {
                     case UNCOVER:
                         if (tiles[i][j].getState() == Tile.TileState.COVERED || tiles[i][j].getState() == Tile.TileState.UNKNOWN) {
-                            uncover(i, j);
+                            pushUncover(i, j);
                         }
                         break;
                     case UPDATE_SURROUNDING_MINE_COUNT:
@@ -247,6 +310,17 @@ public class GameBoard {
         return mines;
     }
 
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Has to be set before the mines are placed (s. setupTiles)
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
     /**
      * ============================================================
      * For save games
@@ -268,16 +342,19 @@ public class GameBoard {
         return toJson().toString();
     }
 
+    /**
+     * Serializes only the dimensions of this gameboard (Fog mode in multiplayer)
+     */
+    public byte[] toFogBytes() {
+        return toFogJson().toString().getBytes();
+    }
+
     /**
      * Serializes this SaveGame to a JSON string.
      */
     public JSONObject toJson() {
         try {
-            JSONObject jsonGameBoard = new JSONObject();
-
-            jsonGameBoard.put("rows", rows);
-            jsonGameBoard.put("cols", cols);
-            jsonGameBoard.put("mines", mines);
+            JSONObject jsonGameBoard = toFogJson();
 
             JSONObject jsonTiles = new JSONObject();
             for (int row = 0; row < rows; row++) {
@@ -294,6 +371,24 @@ public class GameBoard {
         }
     }
 
+    private JSONObject toFogJson() {
+        try {
+            JSONObject jsonGameBoard = new JSONObject();
+
+            jsonGameBoard.put("rows", rows);
+            jsonGameBoard.put("cols", cols);
+            jsonGameBoard.put("mines", mines);
+
+            return jsonGameBoard;
+        } catch (JSONException ex) {
+            ex.printStackTrace();
+            throw new RuntimeException("Error converting gameboard to JSON.", ex);
+        }
+    }
+
+    /**
+     * Loads a gameboard. Without tiles (Fog mode) all tiles stay covered.
+     */
     public static GameBoard fromJson(Game game, String json) {
         if (json == null || json.trim().equals("")) return null;
 
@@ -307,6 +402,9 @@ public class GameBoard {
             int mines = jsonGameBoard.getInt("mines");
 
             gameBoard = new GameBoard(game, rows, cols, mines);
+            if (!jsonGameBoard.has("tiles")) {
+                return gameBoard;
+            }
 
             Tile[][] tiles = new Tile[rows][cols];
             JSONObject jsonTiles = jsonGameBoard.getJSONObject("tiles");
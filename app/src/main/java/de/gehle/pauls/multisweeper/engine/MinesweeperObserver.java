@@ -5,7 +5,10 @@ package de.gehle.pauls.multisweeper.engine;
  */
 public interface MinesweeperObserver extends Timer.TimerObserver, Counter.CounterObserver {
 
-    public void updateTile(int row, int col);
+    /**
+     * Called once per operation of the game with all tiles it has changed
+     */
+    public void onBoardChanged(BoardChangeSet changes);
 
     public void onGameStateChanged(Game.GameState newState);
 }
@@ -0,0 +1,137 @@
+package de.gehle.pauls.multisweeper.engine;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.Arrays;
+
+/**
+ * Log of all moves of a game
+ * <p/>
+ * Together with the seed of the gameboard a game can be replayed from the log,
+ * e.g. to verify the result of another player.
+ * Every move is packed into one int: [Alt-move 1 bit][Row 15 bits][Col 15 bits]
+ *
+ * @author Andi
+ */
+public class MoveLog {
+
+    private static final int ALT_MOVE = 1 << 30;
+    private static final int MASK = 0x7FFF;
+
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private int[] moves = new int[64];
+    private int size = 0;
+    private int hash = FNV_OFFSET;
+
+    public void add(boolean altMove, int row, int col) {
+        add((altMove ? ALT_MOVE : 0) | (row & MASK) << 15 | (col & MASK));
+    }
+
+    /**
+     * @param move Packed move (s. get)
+     */
+    public void add(int move) {
+        if (size == moves.length) {
+            moves = Arrays.copyOf(moves, size * 2);
+        }
+        moves[size++] = move;
+
+        // FNV-1a over the bytes of the move
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            hash ^= (move >>> shift) & 0xFF;
+            hash *= FNV_PRIME;
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        hash = FNV_OFFSET;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Packed move
+     */
+    public int get(int index) {
+        return moves[index];
+    }
+
+    /**
+     * @return Hash over all moves, equal logs have the same hash
+     */
+    public int getHash() {
+        return hash;
+    }
+
+    /**
+     * @return Whether the other log is the beginning of this one (or equal)
+     */
+    public boolean startsWith(MoveLog other) {
+        if (other.size > size) {
+            return false;
+        }
+        for (int i = 0; i < other.size; ++i) {
+            if (moves[i] != other.moves[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean isAltMove(int move) {
+        return (move & ALT_MOVE) != 0;
+    }
+
+    public static int getRow(int move) {
+        return (move >> 15) & MASK;
+    }
+
+    public static int getCol(int move) {
+        return move & MASK;
+    }
+
+    /**
+     * Plays all moves of the log on the given game
+     *
+     * @param game     Game with the same size and seed as the logged one
+     * @param playerId Player the moves are done for
+     */
+    public void replay(Game game, int playerId) {
+        for (int i = 0; i < size; ++i) {
+            int move = moves[i];
+            if (isAltMove(move)) {
+                game.playerMoveAlt(playerId, getRow(move), getCol(move));
+            } else {
+                game.playerMove(playerId, getRow(move), getCol(move));
+            }
+        }
+    }
+
+    /**
+     * ============================================================
+     * For save games
+     * ============================================================
+     */
+
+    public JSONArray toJson() {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < size; ++i) {
+            array.put(moves[i]);
+        }
+        return array;
+    }
+
+    public static MoveLog fromJson(JSONArray array) throws JSONException {
+        MoveLog moveLog = new MoveLog();
+        for (int i = 0; i < array.length(); ++i) {
+            moveLog.add(array.getInt(i));
+        }
+        return moveLog;
+    }
+}
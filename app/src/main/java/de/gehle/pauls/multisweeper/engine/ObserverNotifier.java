@@ -0,0 +1,67 @@
+package de.gehle.pauls.multisweeper.engine;
+
+/**
+ * Passes the values of the mine counter and the timer on to the observer, but only changed values
+ * <p/>
+ * While the game holds the notifications (s. hold, e.g. during a move or while loading),
+ * only the last value of each is delivered on release. So restoring 99 flags is one update, not 99.
+ *
+ * @author Andi
+ */
+class ObserverNotifier implements Timer.TimerObserver, Counter.CounterObserver {
+
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private final MinesweeperObserver observer;
+
+    private int counter = NONE;
+    private int deliveredCounter = NONE;
+    private int seconds = NONE;
+    private int deliveredSeconds = NONE;
+
+    private int holdDepth = 0;
+
+    ObserverNotifier(MinesweeperObserver observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * Collects the values until release (Calls can be nested)
+     */
+    void hold() {
+        ++holdDepth;
+    }
+
+    void release() {
+        if (--holdDepth == 0) {
+            deliver();
+        }
+    }
+
+    @Override
+    public void updateCounter(int newValue) {
+        counter = newValue;
+        if (holdDepth == 0) {
+            deliver();
+        }
+    }
+
+    @Override
+    public void updateTimer(int secondsPassed) {
+        seconds = secondsPassed;
+        if (holdDepth == 0) {
+            deliver();
+        }
+    }
+
+    private void deliver() {
+        if (counter != deliveredCounter) {
+            deliveredCounter = counter;
+            observer.updateCounter(counter);
+        }
+        if (seconds != deliveredSeconds) {
+            deliveredSeconds = seconds;
+            observer.updateTimer(seconds);
+        }
+    }
+}
@@ -30,7 +30,10 @@ class Score {
         this.score[playerId] += score;
     }
 
-    public int getFinalScore(int playerId, int fieldSize, int mines, int time) {
+    /**
+     * @param millis Time of the game in milliseconds
+     */
+    public int getFinalScore(int playerId, int fieldSize, int mines, long millis) {
         final int uncoveredFieldsFactor = 1;
         final int minesFactor = 2;
         final int timeFactor = 1000;
@@ -44,17 +47,18 @@ class Score {
         if (minedensity < 10 || minedensity > 90) {
             minedensity = 1;
         }
-        int seconds = time > 0 ? time : 1;
+        //At least one second
+        long time = Math.max(millis, 1000);
 
         Log.d("Score", "Uncovered: " + score[playerId]);
         Log.d("Score", "Minedensity: " + minedensity);
-        Log.d("Score", "Timer: " + seconds);
+        Log.d("Score", "Timer: " + time + "ms");
 
         //return (score[playerId] * minedensity * 100) / seconds;
         if (score[playerId] > 0) {
             return uncoveredFieldsFactor * score[playerId] +
                     minesFactor * minedensity +
-                    (timeFactor / seconds);
+                    (int) (timeFactor * 1000L / time);
         } else {
             return 0;
         }
@@ -10,6 +10,8 @@ public class Tile {
 
     private static final String TAG = "Tile";
 
+    private static final TileState[] states = TileState.values();
+
     public enum TileState {
         COVERED,         // not yet opened (only for shownState)
         NUMBER,          // a no-mine field (default for realState)
@@ -166,6 +168,44 @@ public class Tile {
         return playerLastClicked;
     }
 
+    /**
+     * Shows a state received from the host without knowing the real state (Fog mode in multiplayer)
+     *
+     * @param state              State the host sees for this tile
+     * @param nrSurroundingMines Number shown on the tile
+     * @param playerId           Player who placed the marker on the tile
+     */
+    public void reveal(TileState state, int nrSurroundingMines, int playerId) {
+        shownState = state;
+        this.nrSurroundingMines = nrSurroundingMines;
+        playerLastClicked = playerId;
+    }
+
+    /**
+     * ============================================================
+     * Packed tiles (s. BoardSnapshot)
+     * ============================================================
+     */
+
+    /**
+     * @return What the user sees of this tile in one value: [PlayerId 4 bits][Surrounding mines 4 bits][Shown state 3 bits]
+     */
+    public short pack() {
+        return (short) ((playerLastClicked & 0x0F) << 7 | nrSurroundingMines << 3 | shownState.ordinal());
+    }
+
+    public static TileState getState(short packed) {
+        return states[packed & 0x07];
+    }
+
+    public static int getNrSurroundingMines(short packed) {
+        return (packed >> 3) & 0x0F;
+    }
+
+    public static int getPlayerId(short packed) {
+        return (packed >> 7) & 0x0F;
+    }
+
     /**
      * ============================================================
      * For save games & multiplayer exchange gameboard
@@ -6,6 +6,13 @@ import android.os.Handler;
  * A general Timer
  * <p/>
  * At the moment just used for minesweeper, but could be used also for other apps
+ * <p/>
+ * The time is measured with a monotonic clock (s. System.nanoTime): The start of the current run
+ * plus the time of all runs before, so a busy main thread can't distort it.
+ * The observer is informed independently, at every full second of the measured time.
+ * <p/>
+ * A started timer can be paused, e.g. while the game isn't visible: It doesn't measure
+ * and doesn't post any callbacks then, but still counts as started (s. hasStarted).
  *
  * @author Andi
  */
@@ -15,10 +22,37 @@ public class Timer {
         public void updateTimer(int secondsPassed);
     }
 
+    /**
+     * Calls the timer back for the next update of the observer (and decides on which thread)
+     */
+    public interface Ticker {
+        /**
+         * Calls the task once after the delay, instead of a call still pending
+         */
+        public void post(Runnable task, long delayMillis);
+
+        public void cancel();
+    }
+
     private TimerObserver observer;
-    private Handler timer = new Handler();
-    private int secondsPassed = 0;
+    private Ticker ticker = new HandlerTicker();
+
+    /**
+     * Time of all runs before the current one
+     */
+    private long millisBefore = 0;
+
+    /**
+     * Start of the current run (s. System.nanoTime)
+     */
+    private long startNanos = 0;
     private boolean timerStarted = false;
+    private boolean paused = false;
+
+    /**
+     * Last value told the observer
+     */
+    private int shownSeconds = -1;
 
     public Timer(TimerObserver observer) {
         this.observer = observer;
@@ -26,23 +60,43 @@ public class Timer {
 
     public Timer(TimerObserver observer, int secondsAlreadyPassed) {
         this.observer = observer;
-        secondsPassed = secondsAlreadyPassed;
+        millisBefore = secondsAlreadyPassed * 1000L;
     }
 
     private Runnable updateTimer = new Runnable() {
         public void run() {
-            long currentMilliseconds = System.currentTimeMillis();
-            setSecondsPassed(secondsPassed + 1);
-            timer.postAtTime(this, currentMilliseconds);
-            //run again in 1 second
-            timer.postDelayed(updateTimer, 1000);
+            long millis = getMillisPassed();
+            notifyObserver((int) (millis / 1000));
+            //Run again at the next full second
+            ticker.post(updateTimer, 1000 - millis % 1000);
         }
     };
 
     public void start() {
-        timer.removeCallbacks(updateTimer);
-        timer.postDelayed(updateTimer, 1000);
-        timerStarted = true;
+        if (!timerStarted) {
+            startNanos = System.nanoTime();
+            timerStarted = true;
+        }
+        ticker.cancel();
+        if (paused) {
+            return;
+        }
+        ticker.post(updateTimer, 1000 - getMillisPassed() % 1000);
+    }
+
+    /**
+     * E.g. a TimingWheel shared by many games instead of a Handler per game
+     */
+    public void setTicker(Ticker ticker) {
+        this.ticker.cancel();
+        this.ticker = ticker;
+        if (timerStarted) {
+            start();
+        }
+    }
+
+    public Ticker getTicker() {
+        return ticker;
     }
 
     public boolean hasStarted() {
@@ -50,20 +104,103 @@ public class Timer {
     }
 
     public void stop() {
-        timer.removeCallbacks(updateTimer);
-        timerStarted = false;
+        ticker.cancel();
+        if (timerStarted) {
+            millisBefore = getMillisPassed();
+            timerStarted = false;
+        }
+    }
+
+    /**
+     * Stops measuring until resume, without stopping the timer
+     */
+    public void pause() {
+        if (paused) {
+            return;
+        }
+        ticker.cancel();
+        millisBefore = getMillisPassed();
+        paused = true;
+    }
+
+    public void resume() {
+        if (!paused) {
+            return;
+        }
+        paused = false;
+        startNanos = System.nanoTime();
+        if (timerStarted) {
+            start();
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
     }
 
     public void reset() {
-        setSecondsPassed(0);
+        setMillisPassed(0);
+    }
+
+    /**
+     * @return Measured time with millisecond precision
+     */
+    public long getMillisPassed() {
+        if (!timerStarted || paused) {
+            return millisBefore;
+        }
+        return millisBefore + (System.nanoTime() - startNanos) / 1000000;
     }
 
     public int getSecondsPassed() {
-        return secondsPassed;
+        return (int) (getMillisPassed() / 1000);
     }
 
     public void setSecondsPassed(int seconds) {
-        secondsPassed = seconds;
-        observer.updateTimer(secondsPassed);
+        setMillisPassed(seconds * 1000L);
+    }
+
+    public void setMillisPassed(long millis) {
+        millisBefore = millis;
+        startNanos = System.nanoTime();
+        if (timerStarted) {
+            //The next full second moved
+            start();
+        }
+        notifyObserver((int) (millis / 1000));
+    }
+
+    private void notifyObserver(int seconds) {
+        if (seconds != shownSeconds) {
+            shownSeconds = seconds;
+            observer.updateTimer(seconds);
+        }
+    }
+
+    /**
+     * Posts to the thread, which created the timer (needs a Looper, created on first use)
+     */
+    private static class HandlerTicker implements Ticker {
+
+        private Handler handler;
+        private Runnable pending;
+
+        @Override
+        public void post(Runnable task, long delayMillis) {
+            if (handler == null) {
+                handler = new Handler();
+            }
+            cancel();
+            pending = task;
+            handler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel() {
+            if (handler != null && pending != null) {
+                handler.removeCallbacks(pending);
+            }
+            pending = null;
+        }
     }
 }
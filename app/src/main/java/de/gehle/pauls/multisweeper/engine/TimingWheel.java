@@ -0,0 +1,305 @@
+package de.gehle.pauls.multisweeper.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical hashed timing wheel: Many timeouts on one thread
+ * <p/>
+ * Meant for hosting many games at once (e.g. on a server), where a Handler or thread per game doesn't scale:
+ * The clocks of the games (s. createTicker), idle timeouts, turn deadlines or grace periods
+ * of disconnected players all share one wheel. Scheduling and cancelling is O(1).
+ * <p/>
+ * The time is divided into ticks. Every level has SLOTS slots, a slot of level L covers SLOTS^L ticks.
+ * A timeout is put into the lowest level, which reaches its deadline. Whenever the wheel passes
+ * the start of a slot of a higher level, its timeouts are moved down, until they expire on level 0.
+ * Deadlines beyond the highest level are moved down until they are in reach.
+ * <p/>
+ * All tasks run on the thread of the wheel (s. start), so they should be short.
+ *
+ * @author Andi
+ */
+public class TimingWheel implements Runnable {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    /**
+     * Handle of a scheduled task
+     */
+    public class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private Timeout prev;
+        private Timeout next;
+        private boolean done = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return Whether the task was still pending and now won't run
+         */
+        public boolean cancel() {
+            synchronized (lock) {
+                if (done) {
+                    return false;
+                }
+                done = true;
+                unlink(this);
+                --size;
+                return true;
+            }
+        }
+
+        /**
+         * @return Whether the task has run or was cancelled
+         */
+        public boolean isDone() {
+            synchronized (lock) {
+                return done;
+            }
+        }
+    }
+
+    private final Object lock = new Object();
+    private final long tickMillis;
+    private final long startNanos;
+
+    /**
+     * Sentinels of the slots: [Level][Slot]
+     */
+    private final Timeout[][] wheels = new Timeout[LEVELS][SLOTS];
+    private long currentTick = 0;
+    private int size = 0;
+
+    private Thread thread;
+    private boolean running = false;
+
+    /**
+     * @param tickMillis Resolution of the wheel, timeouts run at most one tick late
+     */
+    public TimingWheel(long tickMillis) {
+        this.tickMillis = tickMillis;
+        startNanos = System.nanoTime();
+        for (int level = 0; level < LEVELS; ++level) {
+            for (int slot = 0; slot < SLOTS; ++slot) {
+                Timeout sentinel = new Timeout(null, 0);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                wheels[level][slot] = sentinel;
+            }
+        }
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            thread = new Thread(this, "TimingWheel");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the thread, pending timeouts stay scheduled
+     */
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            lock.notify();
+        }
+    }
+
+    /**
+     * @return Number of pending timeouts
+     */
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    public Timeout schedule(Runnable task, long delayMillis) {
+        synchronized (lock) {
+            //From the elapsed time, currentTick may lag behind it. Round up, so the task never runs early
+            long tickNanos = tickMillis * 1000000;
+            long dueNanos = System.nanoTime() - startNanos + delayMillis * 1000000;
+            long deadline = Math.max((dueNanos + tickNanos - 1) / tickNanos, currentTick + 1);
+            Timeout timeout = new Timeout(task, deadline);
+            insert(timeout);
+            ++size;
+            return timeout;
+        }
+    }
+
+    /**
+     * @return Ticker for a game clock (s. Timer.setTicker), which runs on this wheel
+     */
+    public Timer.Ticker createTicker() {
+        return new WheelTicker();
+    }
+
+    @Override
+    public void run() {
+        List<Timeout> expired = new ArrayList<Timeout>();
+        while (true) {
+            synchronized (lock) {
+                if (!running) {
+                    return;
+                }
+                long now = (System.nanoTime() - startNanos) / 1000000;
+                long waitMillis = (currentTick + 1) * tickMillis - now;
+                if (waitMillis > 0) {
+                    try {
+                        lock.wait(waitMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+                //Catches up, if the thread was late
+                while ((currentTick + 1) * tickMillis <= now) {
+                    tick(expired);
+                }
+            }
+
+            for (Timeout timeout : expired) {
+                timeout.task.run();
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * Moves to the next tick and collects the expired timeouts
+     */
+    private void tick(List<Timeout> expired) {
+        ++currentTick;
+
+        //Higher levels first, their timeouts may move down to the slots passed now
+        for (int level = LEVELS - 1; level > 0; --level) {
+            int shift = SLOT_BITS * level;
+            if ((currentTick & ((1L << shift) - 1)) == 0) {
+                Timeout sentinel = wheels[level][(int) (currentTick >> shift) & SLOT_MASK];
+                while (sentinel.next != sentinel) {
+                    Timeout timeout = sentinel.next;
+                    unlink(timeout);
+                    insert(timeout);
+                }
+            }
+        }
+
+        Timeout sentinel = wheels[0][(int) currentTick & SLOT_MASK];
+        while (sentinel.next != sentinel) {
+            Timeout timeout = sentinel.next;
+            unlink(timeout);
+            timeout.done = true;
+            --size;
+            expired.add(timeout);
+        }
+    }
+
+    private void insert(Timeout timeout) {
+        long delta = timeout.deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            ++level;
+        }
+
+        long deadline = timeout.deadline;
+        if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+            //Out of reach: Waits in the farthest slot and is moved again from there
+            deadline = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+        } else if (delta <= 0) {
+            //Moved down in the tick of its deadline
+            deadline = currentTick;
+        }
+
+        Timeout sentinel = wheels[level][(int) (deadline >> (SLOT_BITS * level)) & SLOT_MASK];
+        timeout.prev = sentinel.prev;
+        timeout.next = sentinel;
+        sentinel.prev.next = timeout;
+        sentinel.prev = timeout;
+    }
+
+    private static void unlink(Timeout timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+    }
+
+    /**
+     * Posts and cancels from the thread of the game, runs and reposts on the thread of the wheel
+     * <p/>
+     * Every post and cancel starts a new generation. A task only runs, if no other post or cancel
+     * came in between, and it can only repost, if none came while it was running:
+     * A cancelled ticker stays cancelled, even if its task was already running.
+     */
+    private class WheelTicker implements Timer.Ticker {
+
+        private Timeout pending;
+        private int generation = 0;
+
+        /**
+         * Thread and generation of the running task, null if none is running
+         */
+        private Thread runningThread;
+        private int runningGeneration;
+
+        @Override
+        public synchronized void post(final Runnable task, long delayMillis) {
+            boolean repost = Thread.currentThread() == runningThread;
+            if (repost && runningGeneration != generation) {
+                return;
+            }
+            cancel();
+            final int postedGeneration = generation;
+            if (repost) {
+                runningGeneration = postedGeneration;
+            }
+            pending = schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runTask(task, postedGeneration);
+                }
+            }, delayMillis);
+        }
+
+        @Override
+        public synchronized void cancel() {
+            ++generation;
+            if (pending != null) {
+                pending.cancel();
+                pending = null;
+            }
+        }
+
+        private void runTask(Runnable task, int postedGeneration) {
+            synchronized (this) {
+                if (postedGeneration != generation) {
+                    return;
+                }
+                pending = null;
+                runningThread = Thread.currentThread();
+                runningGeneration = postedGeneration;
+            }
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    runningThread = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import android.graphics.Bitmap;
+
+import java.util.List;
+
+/**
+ * Storage of saved games in the cloud, used by CloudSync
+ * <p/>
+ * All methods wait for the result, so they mustn't be called on the UI thread.
+ *
+ * @author Andi
+ */
+public interface CloudBackend {
+
+    /**
+     * @return Whether the cloud can be used now, e.g. the player is signed in
+     */
+    public boolean isAvailable();
+
+    /**
+     * The cloud may keep its own game instead, e.g. if it contains the uploaded one (s. SaveGameMerger)
+     *
+     * @param saveTime Time the game was saved on the device (s. SaveLibrary.Slot.getTime), compared with the game in the cloud
+     * @param cover    Thumbnail of the gameboard (or null)
+     * @return Game stored in the cloud now (the uploaded or the kept one) or null, if the upload failed
+     */
+    public byte[] upload(String name, byte[] data, long saveTime, Bitmap cover);
+
+    /**
+     * @return Saved game or null, if there is none or it couldn't be loaded
+     */
+    public byte[] download(String name);
+
+    /**
+     * @return Whether the game isn't in the cloud anymore
+     */
+    public boolean delete(String name);
+
+    /**
+     * @return Metadata of all saved games (without their data) or null, if it couldn't be loaded
+     */
+    public List<SaveMetadata> loadMetadata();
+}
@@ -0,0 +1,180 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import de.gehle.pauls.multisweeper.components.SaveQueue;
+
+/**
+ * Brings the saved games of the device (s. SaveLibrary) into the cloud
+ * <p/>
+ * Games are always loaded from and saved to the device, the cloud is only updated in the background
+ * on the SaveQueue. A sync uploads every save and deletion, which isn't synced yet, so a sync
+ * replaced by a newer one in the queue doesn't lose anything. If the cloud keeps its own game
+ * instead of an upload (s. SaveGameMerger), the device saves that game too.
+ * The data in the cloud is only read, if the device knows nothing about a slot (e.g. after a new install)
+ * and the game is continued, otherwise only the metadata is loaded (s. MetadataCache).
+ *
+ * @author Andi
+ */
+public class CloudSync {
+
+    private static final String TAG = "CloudSync";
+
+    private final SaveLibrary store;
+    private final CloudBackend backend;
+
+    private final Map<String, Future<Bitmap>> covers = new HashMap<String, Future<Bitmap>>();
+
+    public CloudSync(SaveLibrary store, CloudBackend backend) {
+        this.store = store;
+        this.backend = backend;
+    }
+
+    /**
+     * @param cover Thumbnail for the next upload of the slot (s. ThumbnailGenerator)
+     */
+    public synchronized void setCover(String name, Future<Bitmap> cover) {
+        covers.put(name, cover);
+    }
+
+    /**
+     * Returns at once, the sync runs on the SaveQueue
+     *
+     * @param callback Gets whether everything is synced (or null)
+     */
+    public void requestSync(SaveQueue.Callback callback) {
+        SaveQueue.getInstance().enqueue(new SaveQueue.SaveJob() {
+            @Override
+            public boolean write() {
+                return syncAll();
+            }
+        }, callback);
+    }
+
+    /**
+     * Uploads all saves and deletions, which aren't synced yet. Waits for the cloud.
+     *
+     * @return Whether everything is synced
+     */
+    public boolean syncAll() {
+        if (!backend.isAvailable()) {
+            Log.d(TAG, "Cloud not available");
+            return false;
+        }
+
+        boolean success = true;
+        for (SaveLibrary.Slot slot : store.getSlots()) {
+            if (slot.isSynced()) {
+                continue;
+            }
+            String name = slot.getName();
+            long seq = slot.getSeq();
+            boolean synced;
+            if (slot.isDeleted()) {
+                synced = backend.delete(name);
+            } else {
+                byte[] data = store.load(name);
+                //The time of the save, not of the sync: The cloud may have been played on in between
+                byte[] stored = backend.upload(name, data, slot.getTime(), takeCover(name));
+                synced = stored != null;
+                if (synced && !Arrays.equals(stored, data)) {
+                    //E.g. another device played on from this save, the device takes its game
+                    synced = store.replace(name, seq, stored);
+                    ++seq;
+                    Log.d(TAG, "Took " + name + " from the cloud: " + synced);
+                }
+            }
+            Log.d(TAG, "Synced " + name + " (" + seq + "): " + synced);
+            success &= synced && store.markSynced(name, seq);
+        }
+        return success;
+    }
+
+    /**
+     * Loads a slot, the device knows nothing about, from the cloud into the store. Waits for the cloud.
+     *
+     * @return Saved game of the slot or null
+     */
+    public byte[] restore(String name) {
+        if (store.read(name) == null && backend.isAvailable()) {
+            byte[] data = backend.download(name);
+            if (data != null && store.save(name, data)) {
+                Log.d(TAG, "Restored " + name + " from the cloud");
+                store.markSynced(name, store.read(name).getSeq());
+            }
+        }
+        return store.load(name);
+    }
+
+    /**
+     * Updates the metadata of all save games from the device and (if available) from the cloud.
+     * Waits for the cloud.
+     */
+    public void refreshMetadata(MetadataCache cache) {
+        Map<String, SaveMetadata> refreshed = new HashMap<String, SaveMetadata>();
+        for (SaveLibrary.Slot slot : store.getSlots()) {
+            if (slot.isDeleted()) {
+                continue;
+            }
+            SaveMetadata cached = cache.get(slot.getName());
+            if (cached == null || !cached.isLocal()) {
+                //Saved before the cache existed, only the time is known
+                cached = new SaveMetadata(slot.getName(), slot.getTime(), null, true);
+            }
+            refreshed.put(slot.getName(), cached);
+        }
+
+        List<SaveMetadata> cloud = backend.isAvailable() ? backend.loadMetadata() : null;
+        if (cloud == null) {
+            //Keeps what was known about the cloud
+            cloud = new ArrayList<SaveMetadata>();
+            for (SaveMetadata cached : cache.getAll()) {
+                if (!cached.isLocal()) {
+                    cloud.add(cached);
+                }
+            }
+        }
+        for (SaveMetadata metadata : cloud) {
+            SaveLibrary.Slot slot = store.read(metadata.getName());
+            //The device knows better, e.g. a deletion not yet synced
+            if (slot == null) {
+                refreshed.put(metadata.getName(), metadata);
+            }
+        }
+
+        cache.replaceAll(new ArrayList<SaveMetadata>(refreshed.values()));
+    }
+
+    /**
+     * Waits for the thumbnail of the slot, not on the UI thread
+     */
+    private Bitmap takeCover(String name) {
+        Future<Bitmap> cover;
+        synchronized (this) {
+            cover = covers.remove(name);
+        }
+        if (cover == null) {
+            return null;
+        }
+        try {
+            return cover.get();
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Failed to create a cover image", e);
+        } catch (ExecutionException e) {
+            Log.d(TAG, "Failed to create a cover image", e);
+        } catch (CancellationException e) {
+            Log.d(TAG, "Cover image was cancelled", e);
+        }
+        return null;
+    }
+}
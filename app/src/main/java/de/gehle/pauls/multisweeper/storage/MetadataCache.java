@@ -0,0 +1,145 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metadata of all save games on the device and in the cloud, kept on the device
+ * <p/>
+ * The home screen only reads the cache, so it doesn't wait for the cloud. The cache is
+ * updated by every save and refreshed in the background (s. CloudSync.refreshMetadata),
+ * the data of a save game is only downloaded when it is continued.
+ * The file is replaced by an atomic rename on every change.
+ *
+ * @author Andi
+ */
+public class MetadataCache {
+
+    private static final String TAG = "MetadataCache";
+
+    private static MetadataCache instance;
+
+    private final File file;
+    private final Map<String, SaveMetadata> entries = new HashMap<String, SaveMetadata>();
+
+    /**
+     * @return Cache of the app, in the directory of the save games (s. SaveLibrary)
+     */
+    public static synchronized MetadataCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new MetadataCache(new File(new File(context.getFilesDir(), "saves"), "metadata.json"));
+        }
+        return instance;
+    }
+
+    public MetadataCache(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * @return Metadata of the save game or null, if there is none
+     */
+    public synchronized SaveMetadata get(String name) {
+        return entries.get(name);
+    }
+
+    public synchronized List<SaveMetadata> getAll() {
+        return new ArrayList<SaveMetadata>(entries.values());
+    }
+
+    public synchronized void put(SaveMetadata metadata) {
+        entries.put(metadata.getName(), metadata);
+        write();
+    }
+
+    public synchronized void remove(String name) {
+        if (entries.remove(name) != null) {
+            write();
+        }
+    }
+
+    /**
+     * Replaces all entries, e.g. after a refresh
+     */
+    public synchronized void replaceAll(List<SaveMetadata> metadata) {
+        entries.clear();
+        for (SaveMetadata entry : metadata) {
+            entries.put(entry.getName(), entry);
+        }
+        write();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    bytes.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+
+            JSONArray array = new JSONArray(new String(bytes.toByteArray()));
+            for (int i = 0; i < array.length(); ++i) {
+                SaveMetadata metadata = SaveMetadata.fromJson(array.getJSONObject(i));
+                if (metadata != null) {
+                    entries.put(metadata.getName(), metadata);
+                }
+            }
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not read " + file, ex);
+        } catch (JSONException ex) {
+            //Refreshed by the next sync
+            Log.e(TAG, "Metadata cache has a syntax error", ex);
+        }
+    }
+
+    private void write() {
+        JSONArray array = new JSONArray();
+        for (SaveMetadata metadata : entries.values()) {
+            array.put(metadata.toJson());
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(array.toString().getBytes());
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not write " + file, ex);
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
+import de.gehle.pauls.multisweeper.engine.Game;
+import de.gehle.pauls.multisweeper.engine.MinesweeperObserver;
+import de.gehle.pauls.multisweeper.engine.MoveLog;
+
+/**
+ * Journal of the running singleplayer game, to recover it after a crash
+ * <p/>
+ * The journal starts with the base of the game: The size and seed of a new game (the mines are placed
+ * by the seed and the first move) or the save game it was continued from. Then the moves follow,
+ * so the game can be replayed (s. MoveLog). A move only copies an int on the UI thread, the file is
+ * written on a background thread: Moves are collected and written together with a single fsync.
+ * Every CHECKPOINT_MOVES moves the journal is compacted into a new file (base and all moves in one
+ * record), which replaces the old one by an atomic rename.
+ * <p/>
+ * Record ([Byte1][Byte2]...[ByteN]):
+ * [Type][Length1..4][Data]...[CRC1..4]
+ * Type: NEW_GAME = [Rows1..4][Cols1..4][Mines1..4][Seed1..8], SAVE_GAME = Save game (s. Game.toBytes),
+ * SLOT = Name of the slot of the save game in the library (follows SAVE_GAME),
+ * MOVES = [Millis1..8][Move1..4][Move1..4]...
+ *
+ * @author Andi
+ */
+public class MoveJournal {
+
+    private static final String TAG = "MoveJournal";
+
+    private static final byte NEW_GAME = 'N';
+    private static final byte SAVE_GAME = 'S';
+    private static final byte SLOT = 'L';
+    private static final byte MOVES = 'M';
+
+    /**
+     * Moves are written at latest after this delay (ms) or after FLUSH_MOVES moves
+     */
+    private static final int FLUSH_DELAY = 1000;
+    private static final int FLUSH_MOVES = 32;
+    private static final int CHECKPOINT_MOVES = 256;
+
+    private static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Game without any output, used to replay the journal
+     */
+    private static final MinesweeperObserver NO_OBSERVER = new MinesweeperObserver() {
+        @Override
+        public void onBoardChanged(BoardChangeSet changes) {
+        }
+
+        @Override
+        public void onGameStateChanged(Game.GameState newState) {
+        }
+
+        @Override
+        public void updateTimer(int secondsPassed) {
+        }
+
+        @Override
+        public void updateCounter(int newValue) {
+        }
+    };
+
+    /**
+     * Game found in the journal, s. read
+     */
+    public static class Recovery {
+        private byte baseType;
+        private byte[] base;
+        private String slotName;
+        private MoveLog moves = new MoveLog();
+        private long millis = 0;
+
+        public int getMoveCount() {
+            return moves.size();
+        }
+
+        /**
+         * @return Slot of the game in the library or null, if the game was never saved
+         */
+        public String getSlotName() {
+            return slotName;
+        }
+
+        /**
+         * @return Save game of the recovered game (s. Game.toBytes) or null, if it has ended
+         */
+        public byte[] toSaveGame() {
+            Game game = replay();
+            return game != null ? game.toBytes() : null;
+        }
+
+        /**
+         * Replays the journal. The game stays paused without any clock callbacks,
+         * so it may be replayed on a background thread.
+         *
+         * @return Recovered game or null, if it has ended
+         */
+        public Game replay() {
+            Game game;
+            if (baseType == NEW_GAME) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(base));
+                try {
+                    game = new Game(NO_OBSERVER, in.readInt(), in.readInt(), in.readInt(), 1, in.readLong());
+                } catch (IOException ex) {
+                    throw new RuntimeException("Broken base of the journal", ex);
+                }
+            } else {
+                game = new Game(NO_OBSERVER, base, true);
+            }
+            //No clock callbacks for the replay
+            game.pause();
+            moves.replay(game, 0);
+            game.setMillisPassed(millis);
+
+            Game.GameState state = game.getGameState();
+            if (state == Game.GameState.GAME_WON || state == Game.GameState.GAME_LOST) {
+                return null;
+            }
+            return game;
+        }
+    }
+
+    private static MoveJournal instance;
+
+    private final File file;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * ============================================================
+     * State of the UI thread (guarded by this)
+     * ============================================================
+     */
+
+    private int generation = 0;
+    private byte baseType;
+    private byte[] base;
+    private String slotName;
+    private int journaled = 0;
+    private int[] pending = new int[FLUSH_MOVES];
+    private int pendingSize = 0;
+    private long millis = 0;
+    private boolean flushScheduled = false;
+    private boolean checkpointRequested = false;
+
+    /**
+     * ============================================================
+     * State of the writer thread
+     * ============================================================
+     */
+
+    private int writtenGeneration = -1;
+    private int[] written = new int[64];
+    private int writtenSize = 0;
+    private int sinceCheckpoint = 0;
+
+    /**
+     * @return Journal of the app, in the directory of the save games (s. SaveLibrary)
+     */
+    public static synchronized MoveJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new MoveJournal(new File(new File(context.getFilesDir(), "saves"), "moves.journal"));
+        }
+        return instance;
+    }
+
+    public MoveJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Starts the journal of a new game, written with its first move
+     */
+    public synchronized void begin(Game game) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(game.getRows());
+            out.writeInt(game.getCols());
+            out.writeInt(game.getMines());
+            out.writeLong(game.getSeed());
+        } catch (IOException ex) {
+            throw new RuntimeException("Error writing the base of the journal", ex);
+        }
+        start(game, NEW_GAME, bytes.toByteArray(), null);
+    }
+
+    /**
+     * Starts the journal of a game continued from a save game, written at once
+     * (the save game may be deleted)
+     *
+     * @param slotName Slot of the save game in the library, the game is recovered into it
+     */
+    public synchronized void begin(Game game, byte[] saveGame, String slotName) {
+        start(game, SAVE_GAME, saveGame, slotName);
+        writer.execute(flush);
+    }
+
+    private void start(Game game, byte type, byte[] data, String slot) {
+        ++generation;
+        baseType = type;
+        base = data;
+        slotName = slot;
+        journaled = game.getMoveLog().size();
+        pendingSize = 0;
+        millis = game.getMillisPassed();
+        checkpointRequested = false;
+    }
+
+    /**
+     * The game got its slot in the library, e.g. when a new game is saved the first time.
+     * Written at once, so a recovery goes into the same slot.
+     */
+    public synchronized void setSlotName(String slot) {
+        if (base == null) {
+            return;
+        }
+        slotName = slot;
+        checkpointRequested = true;
+        writer.execute(flush);
+    }
+
+    /**
+     * Takes the new moves of the game, called after every move on the UI thread
+     */
+    public synchronized void onMoves(Game game) {
+        if (base == null) {
+            return;
+        }
+        Game.GameState state = game.getGameState();
+        if (state == Game.GameState.GAME_WON || state == Game.GameState.GAME_LOST) {
+            //Nothing to recover
+            clear();
+            return;
+        }
+
+        MoveLog moveLog = game.getMoveLog();
+        for (; journaled < moveLog.size(); ++journaled) {
+            if (pendingSize == pending.length) {
+                pending = Arrays.copyOf(pending, pendingSize * 2);
+            }
+            pending[pendingSize++] = moveLog.get(journaled);
+        }
+        millis = game.getMillisPassed();
+
+        if (pendingSize >= FLUSH_MOVES) {
+            writer.execute(flush);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            writer.schedule(flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Forgets the game, e.g. after it was saved or has ended
+     */
+    public synchronized void clear() {
+        ++generation;
+        base = null;
+        pendingSize = 0;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                writtenGeneration = -1;
+                if (file.exists() && !file.delete()) {
+                    Log.e(TAG, "Could not delete " + file);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the journal, not on the UI thread
+     *
+     * @return Game to recover or null
+     */
+    public Recovery read() {
+        if (!file.exists()) {
+            return null;
+        }
+        Recovery recovery = new Recovery();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                byte[] record;
+                while ((record = readRecord(in)) != null) {
+                    byte type = record[0];
+                    if (type == NEW_GAME || type == SAVE_GAME) {
+                        recovery.baseType = type;
+                        recovery.base = Arrays.copyOfRange(record, 1, record.length);
+                        recovery.slotName = null;
+                        recovery.moves.clear();
+                    } else if (type == SLOT) {
+                        recovery.slotName = new String(record, 1, record.length - 1);
+                    } else if (type == MOVES) {
+                        DataInputStream moves = new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1));
+                        recovery.millis = moves.readLong();
+                        for (int i = 0; i < (record.length - 9) / 4; ++i) {
+                            recovery.moves.add(moves.readInt());
+                        }
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not read the journal", ex);
+        }
+
+        if (recovery.base == null || (recovery.baseType == NEW_GAME && recovery.moves.size() == 0)) {
+            return null;
+        }
+        return recovery;
+    }
+
+    /**
+     * ============================================================
+     * Writer thread
+     * ============================================================
+     */
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            int gen;
+            byte type;
+            byte[] baseData;
+            String slot;
+            int[] moves;
+            long time;
+            boolean requested;
+            synchronized (MoveJournal.this) {
+                flushScheduled = false;
+                if (base == null) {
+                    return;
+                }
+                gen = generation;
+                type = baseType;
+                baseData = base;
+                slot = slotName;
+                moves = Arrays.copyOf(pending, pendingSize);
+                pendingSize = 0;
+                time = millis;
+                requested = checkpointRequested;
+                checkpointRequested = false;
+            }
+
+            try {
+                boolean checkpoint = requested;
+                if (gen != writtenGeneration) {
+                    writtenGeneration = gen;
+                    writtenSize = 0;
+                    checkpoint = true;
+                }
+                if (writtenSize + moves.length > written.length) {
+                    written = Arrays.copyOf(written, Math.max(written.length * 2, writtenSize + moves.length));
+                }
+                System.arraycopy(moves, 0, written, writtenSize, moves.length);
+                writtenSize += moves.length;
+                sinceCheckpoint += moves.length;
+
+                if (checkpoint || sinceCheckpoint >= CHECKPOINT_MOVES) {
+                    writeCheckpoint(type, baseData, slot, time);
+                } else if (moves.length > 0) {
+                    FileOutputStream out = new FileOutputStream(file, true);
+                    try {
+                        out.write(createMoves(moves, moves.length, time));
+                        out.getFD().sync();
+                    } finally {
+                        out.close();
+                    }
+                }
+            } catch (IOException ex) {
+                Log.e(TAG, "Could not write the journal", ex);
+                //The next flush writes a checkpoint
+                writtenGeneration = -1;
+            }
+        }
+    };
+
+    /**
+     * Writes base and all moves into a new file, which replaces the journal
+     */
+    private void writeCheckpoint(byte type, byte[] baseData, String slot, long time) throws IOException {
+        Log.d(TAG, "Checkpoint after " + writtenSize + " moves");
+        File tmp = new File(file.getPath() + ".tmp");
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            byte[] baseRecord = new byte[baseData.length + 1];
+            baseRecord[0] = type;
+            System.arraycopy(baseData, 0, baseRecord, 1, baseData.length);
+            out.write(createRecord(baseRecord));
+            if (slot != null) {
+                byte[] name = slot.getBytes();
+                byte[] slotRecord = new byte[name.length + 1];
+                slotRecord[0] = SLOT;
+                System.arraycopy(name, 0, slotRecord, 1, name.length);
+                out.write(createRecord(slotRecord));
+            }
+            out.write(createMoves(written, writtenSize, time));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+        sinceCheckpoint = 0;
+    }
+
+    private static byte[] createMoves(int[] moves, int count, long time) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9 + count * 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MOVES);
+        out.writeLong(time);
+        for (int i = 0; i < count; ++i) {
+            out.writeInt(moves[i]);
+        }
+        return createRecord(bytes.toByteArray());
+    }
+
+    /**
+     * @param data Type and data of the record
+     */
+    private static byte[] createRecord(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(data[0]);
+        out.writeInt(data.length - 1);
+        out.write(data, 1, data.length - 1);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return Type and data of the next record or null at the end or a broken record
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            byte type = in.readByte();
+            int length = in.readInt();
+            if (length < 0 || length > MAX_LENGTH) {
+                Log.e(TAG, "Broken record in the journal");
+                return null;
+            }
+            byte[] record = new byte[length + 1];
+            record[0] = type;
+            in.readFully(record, 1, length);
+            int crcValue = in.readInt();
+
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+            crc.update(record, 1, length);
+            if ((int) crc.getValue() != crcValue) {
+                Log.e(TAG, "Wrong CRC in the journal");
+                return null;
+            }
+            return record;
+        } catch (EOFException ex) {
+            //End of the journal or a torn record
+            return null;
+        }
+    }
+}
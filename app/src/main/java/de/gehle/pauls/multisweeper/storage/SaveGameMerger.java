@@ -0,0 +1,72 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.gehle.pauls.multisweeper.engine.MoveLog;
+
+/**
+ * Decides which of two conflicting save games is kept (s. SnapshotBackend)
+ * <p/>
+ * A save game contains the seed of its game and all moves since its start (s. Game.toString).
+ * If both saves have the same seed and one move log starts with the other, the longer one
+ * contains the progress of both, no matter which was saved later. Only if the games differ or
+ * have diverged (both devices played on from the same save), the newer save is kept.
+ *
+ * @author Andi
+ */
+class SaveGameMerger {
+
+    private static final String TAG = "SaveGameMerger";
+
+    private SaveGameMerger() {
+    }
+
+    /**
+     * @return Whether the first save is kept
+     */
+    static boolean keepFirst(byte[] first, long firstModified, byte[] second, long secondModified) {
+        JSONObject firstObj = parse(first);
+        JSONObject secondObj = parse(second);
+        MoveLog firstMoves = readMoves(firstObj);
+        MoveLog secondMoves = readMoves(secondObj);
+        if (firstMoves != null && secondMoves != null && firstObj.optLong("seed") == secondObj.optLong("seed")) {
+            if (firstMoves.startsWith(secondMoves)) {
+                Log.d(TAG, "Merged: First save contains the second");
+                return true;
+            }
+            if (secondMoves.startsWith(firstMoves)) {
+                Log.d(TAG, "Merged: Second save contains the first");
+                return false;
+            }
+        }
+        Log.d(TAG, "Saves have diverged, keeping the newer one");
+        return firstModified >= secondModified;
+    }
+
+    /**
+     * @return Move log of the save or null, if it has none (e.g. an older save)
+     */
+    private static MoveLog readMoves(JSONObject obj) {
+        try {
+            return obj != null && obj.has("moves") && obj.has("seed") ? MoveLog.fromJson(obj.getJSONArray("moves")) : null;
+        } catch (JSONException ex) {
+            Log.e(TAG, "Save data has a broken move log", ex);
+            return null;
+        }
+    }
+
+    private static JSONObject parse(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        try {
+            return new JSONObject(new String(data));
+        } catch (JSONException ex) {
+            Log.e(TAG, "Save data has a syntax error", ex);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,568 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * All saved games and finished games (archive) on the device, in one file
+ * <p/>
+ * The file is append-only: Every save, deletion and successful upload (s. CloudSync) is a new record
+ * at the end. It is read once, when the library is opened, and kept in an index by name, which knows
+ * the position of the latest data of every slot. So listing the saves costs no I/O and loading one
+ * reads only its data from the memory-mapped file, the file is opened only once.
+ * Every record has a CRC, a record torn by a crash is cut off. If more than half of the file is outdated,
+ * the current records are written into a new file, which replaces the old one by an atomic rename.
+ * <p/>
+ * Record ([Byte1][Byte2]...[ByteN]):
+ * [Type][Seq1..8][Time1..8][NameLength1..2][Name]...[Length1..4][Data]...[CRC1..4]
+ * Type: SAVE = Saved game, DELETED = Slot deleted, SYNCED = Record Seq is uploaded (no data),
+ * ARCHIVE = Finished game (never synced)
+ *
+ * @author Andi
+ */
+public class SaveLibrary {
+
+    private static final String TAG = "SaveLibrary";
+
+    private static final String FILE_NAME = "library.dat";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final byte SAVE = 'D';
+    private static final byte DELETED = 'X';
+    private static final byte SYNCED = 'S';
+    private static final byte ARCHIVE = 'A';
+
+    private static final int FIXED_LENGTH = 1 + 8 + 8 + 2 + 4 + 4;
+    private static final int MAX_LENGTH = 16 * 1024 * 1024;
+    private static final int MIN_COMPACT_LENGTH = 256 * 1024;
+
+    private static final Comparator<Slot> NEWEST_FIRST = new Comparator<Slot>() {
+        @Override
+        public int compare(Slot lhs, Slot rhs) {
+            if (lhs.time != rhs.time) {
+                return lhs.time > rhs.time ? -1 : 1;
+            }
+            return lhs.name.compareTo(rhs.name);
+        }
+    };
+
+    /**
+     * Entry of the index: State of a slot, without its data
+     */
+    public static class Slot {
+        private String name;
+        private long seq = 0;
+        private long time = 0;
+        private boolean deleted = false;
+        private long syncedSeq = 0;
+        private boolean archive = false;
+
+        /**
+         * Position of the latest data in the file
+         */
+        private long dataOffset = 0;
+        private int dataLength = 0;
+        private long recordLength = 0;
+
+        /**
+         * Entries are changed by the library, so only copies are handed out
+         */
+        private Slot copy() {
+            Slot slot = new Slot();
+            slot.name = name;
+            slot.seq = seq;
+            slot.time = time;
+            slot.deleted = deleted;
+            slot.syncedSeq = syncedSeq;
+            slot.archive = archive;
+            return slot;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Number of the last save or deletion of the slot
+         */
+        public long getSeq() {
+            return seq;
+        }
+
+        /**
+         * @return Time of the last save or deletion (s. System.currentTimeMillis)
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return Whether the last save or deletion is in the cloud too
+         */
+        public boolean isSynced() {
+            return syncedSeq >= seq;
+        }
+
+        /**
+         * @return Whether it's a finished game (s. archive)
+         */
+        public boolean isArchive() {
+            return archive;
+        }
+    }
+
+    private static SaveLibrary instance;
+
+    private final File file;
+    private RandomAccessFile access;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long length = 0;
+
+    /**
+     * Bytes of records, which are still current (s. compact)
+     */
+    private long liveLength = 0;
+
+    private final Map<String, Slot> slots = new HashMap<String, Slot>();
+    private final Map<String, Slot> archives = new HashMap<String, Slot>();
+
+    /**
+     * @return Library of the app, shared by all activities (and the sync, s. CloudSync)
+     */
+    public static synchronized SaveLibrary getInstance(Context context) {
+        if (instance == null) {
+            instance = new SaveLibrary(new File(new File(context.getFilesDir(), "saves"), FILE_NAME));
+        }
+        return instance;
+    }
+
+    public SaveLibrary(File file) {
+        this.file = file;
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Could not create " + dir);
+        }
+        ensureOpen();
+    }
+
+    /**
+     * @return State of the slot or null, if there is nothing about it
+     */
+    public synchronized Slot read(String name) {
+        if (!ensureOpen()) {
+            return null;
+        }
+        Slot slot = slots.get(name);
+        return slot != null ? slot.copy() : null;
+    }
+
+    /**
+     * @return Saved game of the slot or null
+     */
+    public synchronized byte[] load(String name) {
+        if (!ensureOpen()) {
+            return null;
+        }
+        Slot slot = slots.get(name);
+        return slot != null && !slot.deleted ? readData(slot) : null;
+    }
+
+    /**
+     * @return Whether the game was written to the device
+     */
+    public synchronized boolean save(String name, byte[] data) {
+        if (!ensureOpen()) {
+            return false;
+        }
+        Slot slot = slots.get(name);
+        return append(SAVE, name, slot != null ? slot.seq + 1 : 1, data);
+    }
+
+    /**
+     * Saves the game only, if the slot is still at the given save (e.g. nothing was saved meanwhile)
+     *
+     * @return Whether the game was written to the device
+     */
+    public synchronized boolean replace(String name, long seq, byte[] data) {
+        if (!ensureOpen()) {
+            return false;
+        }
+        Slot slot = slots.get(name);
+        return slot != null && slot.seq == seq && append(SAVE, name, seq + 1, data);
+    }
+
+    /**
+     * The deletion is kept as a record, so it can be synced (s. CloudSync)
+     */
+    public synchronized boolean delete(String name) {
+        if (!ensureOpen()) {
+            return false;
+        }
+        Slot slot = slots.get(name);
+        return slot != null && !slot.deleted && append(DELETED, name, slot.seq + 1, new byte[0]);
+    }
+
+    /**
+     * @param seq Save or deletion, which is in the cloud now
+     */
+    public synchronized boolean markSynced(String name, long seq) {
+        return append(SYNCED, name, seq, new byte[0]);
+    }
+
+    /**
+     * @return All slots newest first, including deleted ones (s. isDeleted)
+     */
+    public synchronized List<Slot> getSlots() {
+        if (!ensureOpen()) {
+            return new ArrayList<Slot>();
+        }
+        List<Slot> list = copyAll(slots);
+        Collections.sort(list, NEWEST_FIRST);
+        return list;
+    }
+
+    /**
+     * ============================================================
+     * Archive
+     * ============================================================
+     */
+
+    /**
+     * Keeps a finished game, only on the device
+     *
+     * @return Name of the archived game or null, if it couldn't be written
+     */
+    public synchronized String archive(byte[] data) {
+        if (!ensureOpen()) {
+            return null;
+        }
+        String name = "archive-" + System.currentTimeMillis();
+        while (archives.containsKey(name)) {
+            name += "_";
+        }
+        return append(ARCHIVE, name, 1, data) ? name : null;
+    }
+
+    /**
+     * @return All finished games newest first
+     */
+    public synchronized List<Slot> getArchives() {
+        if (!ensureOpen()) {
+            return new ArrayList<Slot>();
+        }
+        List<Slot> list = copyAll(archives);
+        Collections.sort(list, NEWEST_FIRST);
+        return list;
+    }
+
+    public synchronized byte[] loadArchive(String name) {
+        if (!ensureOpen()) {
+            return null;
+        }
+        Slot slot = archives.get(name);
+        return slot != null ? readData(slot) : null;
+    }
+
+    /**
+     * ============================================================
+     * File
+     * ============================================================
+     */
+
+    /**
+     * Opens the file, if it isn't open, e.g. after it couldn't be opened again after compact
+     *
+     * @return Whether the file is open
+     */
+    private boolean ensureOpen() {
+        if (channel != null) {
+            return true;
+        }
+        try {
+            open();
+            return true;
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not open " + file, ex);
+            try {
+                close();
+            } catch (IOException closeEx) {
+                Log.e(TAG, "Could not close " + file, closeEx);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Opens the file and builds the index, a torn record at the end is cut off
+     */
+    private void open() throws IOException {
+        access = new RandomAccessFile(file, "rw");
+        channel = access.getChannel();
+        length = channel.size();
+        mapped = null;
+        slots.clear();
+        archives.clear();
+        liveLength = 0;
+
+        long offset = 0;
+        if (length > 0) {
+            MappedByteBuffer buffer = map();
+            while (offset < length) {
+                long next = indexRecord(buffer, offset);
+                if (next < 0) {
+                    Log.e(TAG, "Cutting off a broken record at " + offset);
+                    channel.truncate(offset);
+                    length = offset;
+                    mapped = null;
+                    break;
+                }
+                offset = next;
+            }
+        }
+        Log.d(TAG, "Opened with " + slots.size() + " saves and " + archives.size() + " archived games");
+    }
+
+    /**
+     * Adds a record of the file to the index
+     *
+     * @return Offset of the next record or -1, if it is broken
+     */
+    private long indexRecord(MappedByteBuffer buffer, long offset) {
+        if (length - offset < FIXED_LENGTH) {
+            return -1;
+        }
+        int position = (int) offset;
+        byte type = buffer.get(position);
+        long seq = buffer.getLong(position + 1);
+        long time = buffer.getLong(position + 9);
+        int nameLength = buffer.getShort(position + 17) & 0xFFFF;
+        if (length - offset < FIXED_LENGTH + nameLength) {
+            return -1;
+        }
+        byte[] nameBytes = new byte[nameLength];
+        ByteBuffer nameBuffer = buffer.duplicate();
+        nameBuffer.position(position + 19);
+        nameBuffer.get(nameBytes);
+        int dataOffset = position + 19 + nameLength + 4;
+        int dataLength = buffer.getInt(dataOffset - 4);
+        if (dataLength < 0 || dataLength > MAX_LENGTH || length - dataOffset < dataLength + 4) {
+            return -1;
+        }
+
+        CRC32 crc = new CRC32();
+        ByteBuffer record = buffer.duplicate();
+        record.position(position);
+        byte[] bytes = new byte[dataOffset - position + dataLength];
+        record.get(bytes);
+        crc.update(bytes);
+        if ((int) crc.getValue() != buffer.getInt(dataOffset + dataLength)) {
+            return -1;
+        }
+
+        long recordLength = dataOffset - position + dataLength + 4;
+        apply(type, new String(nameBytes), seq, time, dataOffset, dataLength, recordLength);
+        return offset + recordLength;
+    }
+
+    /**
+     * Updates the index by a record, which is in the file now
+     */
+    private void apply(byte type, String name, long seq, long time, long dataOffset, int dataLength, long recordLength) {
+        if (type == ARCHIVE) {
+            Slot slot = new Slot();
+            slot.name = name;
+            slot.seq = seq;
+            slot.time = time;
+            slot.archive = true;
+            slot.dataOffset = dataOffset;
+            slot.dataLength = dataLength;
+            slot.recordLength = recordLength;
+            archives.put(name, slot);
+            liveLength += recordLength;
+            return;
+        }
+
+        Slot slot = slots.get(name);
+        if (slot == null) {
+            slot = new Slot();
+            slot.name = name;
+            slots.put(name, slot);
+        }
+        if (type == SYNCED) {
+            slot.syncedSeq = Math.max(slot.syncedSeq, seq);
+        } else {
+            slot.seq = seq;
+            slot.time = time;
+            slot.deleted = type == DELETED;
+            slot.dataOffset = dataOffset;
+            slot.dataLength = dataLength;
+            //Only the latest record of the slot stays current
+            liveLength += recordLength - slot.recordLength;
+            slot.recordLength = recordLength;
+        }
+    }
+
+    private boolean append(byte type, String name, long seq, byte[] data) {
+        if (!ensureOpen()) {
+            return false;
+        }
+        try {
+            long time = System.currentTimeMillis();
+            byte[] record = createRecord(type, name, seq, time, data);
+            channel.write(ByteBuffer.wrap(record), length);
+            channel.force(false);
+
+            long dataOffset = length + record.length - 4 - data.length;
+            length += record.length;
+            apply(type, name, seq, time, dataOffset, data.length, record.length);
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not write " + name, ex);
+            return false;
+        }
+
+        //The record is written, whatever happens to the compaction
+        if (length > MIN_COMPACT_LENGTH && liveLength * 2 < length) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the current records into a new file, which replaces the old one.
+     * If that fails, the old file is kept. If the new file can't be opened, the next access tries again.
+     */
+    private void compact() {
+        Log.d(TAG, "Compacting " + length + " bytes, " + liveLength + " current");
+        File tmp = new File(file.getPath() + TMP_SUFFIX);
+        try {
+            writeCurrent(tmp);
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not compact " + file, ex);
+            deleteTmp(tmp);
+            return;
+        }
+
+        try {
+            close();
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not close " + file, ex);
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Could not replace " + file);
+            deleteTmp(tmp);
+        }
+        ensureOpen();
+    }
+
+    /**
+     * Writes all current records into the file
+     */
+    private void writeCurrent(File tmp) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        try {
+            out.setLength(0);
+            for (Slot slot : slots.values()) {
+                if (slot.deleted && slot.isSynced()) {
+                    //Nothing left to do for the slot
+                    continue;
+                }
+                out.write(createRecord(slot.deleted ? DELETED : SAVE, slot.name, slot.seq, slot.time, readData(slot)));
+                if (slot.syncedSeq > 0) {
+                    out.write(createRecord(SYNCED, slot.name, slot.syncedSeq, slot.time, new byte[0]));
+                }
+            }
+            for (Slot slot : archives.values()) {
+                out.write(createRecord(ARCHIVE, slot.name, slot.seq, slot.time, readData(slot)));
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void deleteTmp(File tmp) {
+        if (tmp.exists() && !tmp.delete()) {
+            Log.e(TAG, "Could not delete " + tmp);
+        }
+    }
+
+    private void close() throws IOException {
+        mapped = null;
+        channel = null;
+        if (access != null) {
+            access.close();
+            access = null;
+        }
+    }
+
+    private static List<Slot> copyAll(Map<String, Slot> index) {
+        List<Slot> list = new ArrayList<Slot>(index.size());
+        for (Slot slot : index.values()) {
+            list.add(slot.copy());
+        }
+        return list;
+    }
+
+    private byte[] readData(Slot slot) {
+        byte[] data = new byte[slot.dataLength];
+        try {
+            ByteBuffer buffer = map().duplicate();
+            buffer.position((int) slot.dataOffset);
+            buffer.get(data);
+        } catch (IOException ex) {
+            Log.e(TAG, "Could not read " + slot.name, ex);
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * @return Mapping of the whole file, renewed after the file has grown
+     */
+    private MappedByteBuffer map() throws IOException {
+        if (mapped == null || mapped.capacity() < length) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        return mapped;
+    }
+
+    private static byte[] createRecord(byte type, String name, long seq, long time, byte[] data) throws IOException {
+        byte[] nameBytes = name.getBytes();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(FIXED_LENGTH + nameBytes.length + data.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeLong(seq);
+        out.writeLong(time);
+        out.writeShort(nameBytes.length);
+        out.write(nameBytes);
+        out.writeInt(data.length);
+        out.write(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
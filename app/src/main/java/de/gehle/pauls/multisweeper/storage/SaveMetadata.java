@@ -0,0 +1,138 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.gehle.pauls.multisweeper.engine.BoardSnapshot;
+import de.gehle.pauls.multisweeper.engine.Game;
+
+/**
+ * What the home screen needs to know about a save game, without its data (s. MetadataCache)
+ *
+ * @author Andi
+ */
+public class SaveMetadata {
+
+    private static final String TAG = "SaveMetadata";
+
+    private String name;
+    private long lastModified;
+    private int rows = 0;
+    private int cols = 0;
+    private int mines = 0;
+
+    /**
+     * Uncovered tiles in percent of all tiles without mines
+     */
+    private int progress = 0;
+
+    /**
+     * Identifies the cover image, e.g. its uri in the cloud
+     */
+    private String thumbnailKey;
+
+    /**
+     * Whether the data is on the device (s. SaveLibrary) or only in the cloud
+     */
+    private boolean local;
+
+    public SaveMetadata(String name, long lastModified, String thumbnailKey, boolean local) {
+        this.name = name;
+        this.lastModified = lastModified;
+        this.thumbnailKey = thumbnailKey;
+        this.local = local;
+    }
+
+    /**
+     * @return Metadata of a game saved on the device now
+     */
+    public static SaveMetadata fromGame(String name, Game game, BoardSnapshot snapshot) {
+        SaveMetadata metadata = new SaveMetadata(name, System.currentTimeMillis(),
+                snapshot.getSeed() + ":" + snapshot.getVersion(), true);
+        metadata.rows = game.getRows();
+        metadata.cols = game.getCols();
+        metadata.mines = game.getMines();
+        int uncoverable = game.getRows() * game.getCols() - game.getMines();
+        metadata.progress = uncoverable > 0 ? game.getUncoveredCount() * 100 / uncoverable : 0;
+        return metadata;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return Rows of the gameboard or 0, if unknown (e.g. only in the cloud)
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getMines() {
+        return mines;
+    }
+
+    public int getProgress() {
+        return progress;
+    }
+
+    public String getThumbnailKey() {
+        return thumbnailKey;
+    }
+
+    public boolean isLocal() {
+        return local;
+    }
+
+    /**
+     * ============================================================
+     * JSON
+     * ============================================================
+     */
+
+    public JSONObject toJson() {
+        try {
+            JSONObject obj = new JSONObject();
+            obj.put("name", name);
+            obj.put("lastModified", lastModified);
+            obj.put("rows", rows);
+            obj.put("cols", cols);
+            obj.put("mines", mines);
+            obj.put("progress", progress);
+            obj.put("thumbnailKey", thumbnailKey);
+            obj.put("local", local);
+            return obj;
+        } catch (JSONException ex) {
+            ex.printStackTrace();
+            throw new RuntimeException("Error converting save metadata to JSON.", ex);
+        }
+    }
+
+    /**
+     * @return Metadata or null, if the JSON is broken
+     */
+    public static SaveMetadata fromJson(JSONObject obj) {
+        try {
+            SaveMetadata metadata = new SaveMetadata(obj.getString("name"), obj.getLong("lastModified"),
+                    obj.optString("thumbnailKey", null), obj.getBoolean("local"));
+            metadata.rows = obj.getInt("rows");
+            metadata.cols = obj.getInt("cols");
+            metadata.mines = obj.getInt("mines");
+            metadata.progress = obj.getInt("progress");
+            return metadata;
+        } catch (JSONException ex) {
+            Log.e(TAG, "Save metadata has a syntax error: " + obj, ex);
+            return null;
+        }
+    }
+}
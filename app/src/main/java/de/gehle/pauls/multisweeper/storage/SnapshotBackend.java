@@ -0,0 +1,157 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.GamesStatusCodes;
+import com.google.android.gms.games.snapshot.Snapshot;
+import com.google.android.gms.games.snapshot.SnapshotMetadata;
+import com.google.android.gms.games.snapshot.SnapshotMetadataBuffer;
+import com.google.android.gms.games.snapshot.SnapshotMetadataChange;
+import com.google.android.gms.games.snapshot.Snapshots;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Saved games in the snapshots of Google Play Games
+ * <p/>
+ * Like every CloudBackend it waits for its results, it only runs on the sync thread (s. CloudSync),
+ * so neither requests nor conflict resolution block the UI thread.
+ *
+ * @author Andi
+ */
+public class SnapshotBackend implements CloudBackend {
+
+    private static final String TAG = "SnapshotBackend";
+
+    private final GoogleApiClient apiClient;
+
+    public SnapshotBackend(GoogleApiClient apiClient) {
+        this.apiClient = apiClient;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return apiClient.isConnected();
+    }
+
+    @Override
+    public byte[] upload(String name, byte[] data, long saveTime, Bitmap cover) {
+        Snapshot snapshot = open(name, true);
+        if (snapshot == null) {
+            return null;
+        }
+        //Another device may have played on from this save
+        byte[] current = snapshot.readFully();
+        if (current != null && current.length > 0 && !SaveGameMerger.keepFirst(
+                data, saveTime, current, snapshot.getMetadata().getLastModifiedTimestamp())) {
+            Log.d(TAG, "Snapshot " + name + " already contains the save");
+            Games.Snapshots.discardAndClose(apiClient, snapshot);
+            return current;
+        }
+        snapshot.writeBytes(data);
+
+        SnapshotMetadataChange.Builder metadataChangeBuilder = new SnapshotMetadataChange.Builder()
+                .setDescription("Modified data at: " + Calendar.getInstance().getTime());
+        if (cover != null) {
+            metadataChangeBuilder.setCoverImage(cover);
+        }
+        boolean committed = Games.Snapshots.commitAndClose(apiClient, snapshot, metadataChangeBuilder.build())
+                .await().getStatus().isSuccess();
+        return committed ? data : null;
+    }
+
+    @Override
+    public byte[] download(String name) {
+        Snapshot snapshot = open(name, false);
+        if (snapshot == null) {
+            return null;
+        }
+        byte[] data = snapshot.readFully();
+        Games.Snapshots.discardAndClose(apiClient, snapshot);
+        return data != null && data.length > 0 ? data : null;
+    }
+
+    @Override
+    public boolean delete(String name) {
+        Snapshots.OpenSnapshotResult result = Games.Snapshots.open(apiClient, name, false).await();
+        if (result.getStatus().getStatusCode() == GamesStatusCodes.STATUS_SNAPSHOT_NOT_FOUND) {
+            return true;
+        }
+        Snapshot snapshot = processSnapshotOpenResult(result);
+        if (snapshot == null) {
+            return false;
+        }
+        return Games.Snapshots.delete(apiClient, snapshot.getMetadata()).await().getStatus().isSuccess();
+    }
+
+    @Override
+    public List<SaveMetadata> loadMetadata() {
+        Snapshots.LoadSnapshotsResult result = Games.Snapshots.load(apiClient, false).await();
+        if (!result.getStatus().isSuccess()) {
+            Log.e(TAG, "Could not load the snapshots: " + result.getStatus().getStatusCode());
+            result.release();
+            return null;
+        }
+
+        List<SaveMetadata> metadata = new ArrayList<SaveMetadata>();
+        SnapshotMetadataBuffer snapshots = result.getSnapshots();
+        try {
+            for (SnapshotMetadata snapshot : snapshots) {
+                Uri cover = snapshot.getCoverImageUri();
+                metadata.add(new SaveMetadata(snapshot.getUniqueName(), snapshot.getLastModifiedTimestamp(),
+                        cover != null ? cover.toString() : null, false));
+            }
+        } finally {
+            snapshots.close();
+            result.release();
+        }
+        return metadata;
+    }
+
+    private Snapshot open(String name, boolean create) {
+        return processSnapshotOpenResult(Games.Snapshots.open(apiClient, name, create).await());
+    }
+
+    /**
+     * Conflict resolution for when Snapshots are opened, in one round trip:
+     * The saves are merged by their move logs (s. SaveGameMerger), the kept one is opened.
+     *
+     * @param result The open snapshot result to resolve on open.
+     * @return The opened Snapshot on success; otherwise, returns null.
+     */
+    private Snapshot processSnapshotOpenResult(Snapshots.OpenSnapshotResult result) {
+        int status = result.getStatus().getStatusCode();
+
+        Log.d(TAG, "Open result status: " + status);
+
+        if (status == GamesStatusCodes.STATUS_OK) {
+            return result.getSnapshot();
+        } else if (status == GamesStatusCodes.STATUS_SNAPSHOT_CONTENTS_UNAVAILABLE) {
+            return result.getSnapshot();
+        } else if (status == GamesStatusCodes.STATUS_SNAPSHOT_CONFLICT) {
+            Snapshot snapshot = result.getSnapshot();
+            Snapshot conflictSnapshot = result.getConflictingSnapshot();
+
+            //Both versions are part of the result, so deciding needs no request
+            Snapshot resolved = SaveGameMerger.keepFirst(
+                    snapshot.readFully(), snapshot.getMetadata().getLastModifiedTimestamp(),
+                    conflictSnapshot.readFully(), conflictSnapshot.getMetadata().getLastModifiedTimestamp())
+                    ? snapshot : conflictSnapshot;
+
+            Snapshots.OpenSnapshotResult resolveResult = Games.Snapshots.resolveConflict(apiClient, result.getConflictId(), resolved).await();
+            if (resolveResult.getStatus().getStatusCode() == GamesStatusCodes.STATUS_OK) {
+                return resolveResult.getSnapshot();
+            }
+            //Another device wrote meanwhile, the next sync resolves again
+            Log.e(TAG, "Could not resolve snapshot conflict: " + resolveResult.getStatus().getStatusCode());
+        }
+        // Fail, return null.
+        return null;
+    }
+}
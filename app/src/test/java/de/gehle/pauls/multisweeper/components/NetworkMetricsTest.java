@@ -0,0 +1,37 @@
+package de.gehle.pauls.multisweeper.components;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Andi
+ */
+public class NetworkMetricsTest {
+
+    @Test
+    public void matchesMovesByTheirTile() throws JSONException {
+        NetworkMetrics metrics = new NetworkMetrics();
+        //Never comes back, e.g. a tap on an uncovered tile in fog mode
+        metrics.onMoveSent(1, 1);
+        metrics.onMoveSent(2, 3);
+        metrics.onMoveSent(4, 5);
+
+        metrics.onMoveApplied(4, 5);
+        metrics.onMoveApplied(2, 3);
+        assertEquals(2, getAppliedMoves(metrics));
+
+        //Not sent or already applied
+        metrics.onMoveApplied(6, 7);
+        metrics.onMoveApplied(2, 3);
+        assertEquals(2, getAppliedMoves(metrics));
+
+        metrics.onMoveApplied(1, 1);
+        assertEquals(3, getAppliedMoves(metrics));
+    }
+
+    private static long getAppliedMoves(NetworkMetrics metrics) throws JSONException {
+        return metrics.toJson().getJSONObject("moveToApply").getLong("count");
+    }
+}
@@ -0,0 +1,129 @@
+package de.gehle.pauls.multisweeper.components;
+
+import com.google.android.gms.games.multiplayer.Multiplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
+import de.gehle.pauls.multisweeper.engine.Game;
+import de.gehle.pauls.multisweeper.engine.MinesweeperObserver;
+import de.gehle.pauls.multisweeper.engine.Tile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andi
+ */
+public class RevealBufferTest {
+
+    private static final int ROWS = 30;
+    private static final int COLS = 30;
+
+    /**
+     * Passes the changes of the host into the buffer, like the host in fog mode
+     */
+    private static class Host implements MinesweeperObserver {
+        final RevealBuffer buffer = new RevealBuffer();
+
+        @Override
+        public void onBoardChanged(BoardChangeSet changes) {
+            buffer.add(changes);
+        }
+
+        @Override
+        public void onGameStateChanged(Game.GameState newState) {
+        }
+
+        @Override
+        public void updateTimer(int secondsPassed) {
+        }
+
+        @Override
+        public void updateCounter(int newValue) {
+        }
+    }
+
+    private Host host;
+    private Game hostGame;
+    private Game client;
+
+    @Before
+    public void setUp() {
+        host = new Host();
+        host.buffer.reset(ROWS, COLS);
+        hostGame = new Game(host, ROWS, COLS, 1, 2, 42);
+        client = new Game(new Host(), ROWS, COLS, 1, 2);
+    }
+
+    @Test
+    public void splitsALargeMove() {
+        //With a single mine the first move uncovers the whole gameboard, the game over shows the mine
+        hostGame.playerMove(1, ROWS / 2, COLS / 2);
+        assertEquals(Game.GameState.GAME_WON, hostGame.getGameState());
+
+        List<byte[]> messages = host.buffer.flush(1, ROWS / 2, COLS / 2, hostGame);
+        assertTrue(host.buffer.isEmpty());
+        assertTrue(messages.size() > 1);
+
+        int tiles = 0;
+        for (int i = 0; i < messages.size(); ++i) {
+            byte[] message = messages.get(i);
+            assertTrue(message.length + SpectatorStream.SNAPSHOT_HEADER_LENGTH <= Multiplayer.MAX_RELIABLE_MESSAGE_LEN);
+            assertEquals(RevealBuffer.ACTION, message[0]);
+            assertEquals(1, RevealBuffer.getPlayerId(message));
+            assertEquals(i == messages.size() - 1, RevealBuffer.isLastPart(message));
+            assertEquals(ROWS / 2, RevealBuffer.getMoveRow(message));
+            assertEquals(COLS / 2, RevealBuffer.getMoveCol(message));
+            tiles += (message.length - 5) / 4;
+        }
+        assertEquals(ROWS * COLS, tiles);
+    }
+
+    @Test
+    public void appliesTheGameStateWithTheLastPart() {
+        hostGame.playerMove(1, ROWS / 2, COLS / 2);
+        List<byte[]> messages = host.buffer.flush(1, ROWS / 2, COLS / 2, hostGame);
+
+        for (int i = 0; i < messages.size() - 1; ++i) {
+            RevealBuffer.apply(client, messages.get(i));
+            assertNotEquals(Game.GameState.GAME_WON, client.getGameState());
+        }
+        RevealBuffer.apply(client, messages.get(messages.size() - 1));
+        assertEquals(Game.GameState.GAME_WON, client.getGameState());
+
+        for (int row = 0; row < ROWS; ++row) {
+            for (int col = 0; col < COLS; ++col) {
+                Tile expected = hostGame.getTile(row, col);
+                Tile actual = client.getTile(row, col);
+                assertEquals(expected.getState(), actual.getState());
+                assertEquals(expected.getNrSurroundingMines(), actual.getNrSurroundingMines());
+            }
+        }
+    }
+
+    @Test
+    public void sendsEveryTileOnce() {
+        RevealBuffer buffer = new RevealBuffer();
+        buffer.reset(ROWS, COLS);
+        assertTrue(buffer.isEmpty());
+        buffer.add(1, 2);
+        buffer.add(1, 2);
+        buffer.add(3, 4);
+        assertFalse(buffer.isEmpty());
+
+        List<byte[]> messages = buffer.flush(hostGame);
+        assertEquals(1, messages.size());
+        assertEquals(5 + 2 * 4, messages.get(0).length);
+        assertEquals(Game.NO_PLAYER, RevealBuffer.getPlayerId(messages.get(0)));
+
+        //Sent again in the next move
+        buffer.add(1, 2);
+        assertEquals(5 + 4, buffer.flush(0, 1, 2, hostGame).get(0).length);
+    }
+}
@@ -0,0 +1,111 @@
+package de.gehle.pauls.multisweeper.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andi
+ */
+public class BoardChangeSetTest {
+
+    /**
+     * Keeps all change sets delivered by the game
+     */
+    private static class Recorder implements MinesweeperObserver {
+        final List<BoardChangeSet> changeSets = new ArrayList<BoardChangeSet>();
+
+        @Override
+        public void onBoardChanged(BoardChangeSet changes) {
+            changeSets.add(changes);
+        }
+
+        @Override
+        public void onGameStateChanged(Game.GameState newState) {
+        }
+
+        @Override
+        public void updateTimer(int secondsPassed) {
+        }
+
+        @Override
+        public void updateCounter(int newValue) {
+        }
+    }
+
+    @Test
+    public void keepsPositionsAndBounds() {
+        BoardChangeSet changes = new BoardChangeSet(7, 10);
+        assertTrue(changes.isEmpty());
+        for (int i = 0; i < 20; ++i) {
+            changes.add(2 + i % 4, 3 + i / 4);
+        }
+
+        assertEquals(7, changes.getVersion());
+        assertEquals(20, changes.size());
+        assertEquals(2, changes.getRow(0));
+        assertEquals(3, changes.getCol(0));
+        assertEquals(5 * 10 + 7, changes.getCell(19));
+        assertEquals(2, changes.getTop());
+        assertEquals(3, changes.getLeft());
+        assertEquals(5, changes.getBottom());
+        assertEquals(7, changes.getRight());
+    }
+
+    @Test
+    public void deliversOneChangeSetPerMove() {
+        Recorder recorder = new Recorder();
+        Game game = new Game(recorder, 16, 16, 40, 1, 42);
+        game.pause();
+
+        game.playerMove(0, 8, 8);
+        assertEquals(1, recorder.changeSets.size());
+        BoardChangeSet first = recorder.changeSets.get(0);
+        assertEquals(game.getUncoveredCount(), first.size());
+        assertEquals(game.getBoardVersion(), first.getVersion());
+
+        Set<Integer> cells = new HashSet<Integer>();
+        for (int i = 0; i < first.size(); ++i) {
+            assertTrue("Tile contained twice", cells.add(first.getCell(i)));
+            int row = first.getRow(i);
+            int col = first.getCol(i);
+            assertTrue(row >= first.getTop() && row <= first.getBottom());
+            assertTrue(col >= first.getLeft() && col <= first.getRight());
+            assertEquals(game.getTile(row, col).pack(), first.getValue(i));
+        }
+
+        game.playerMoveAlt(0, 0, 0);
+        assertEquals(2, recorder.changeSets.size());
+        BoardChangeSet second = recorder.changeSets.get(1);
+        assertEquals(first.getVersion() + 1, second.getVersion());
+        assertEquals(1, second.size());
+    }
+
+    @Test
+    public void collectsNestedChanges() {
+        Recorder recorder = new Recorder();
+        Game game = new Game(recorder, 16, 16, 40, 1, 42);
+        game.pause();
+        game.playerMove(0, 8, 8);
+        recorder.changeSets.clear();
+
+        game.beginChanges();
+        game.playerMoveAlt(0, 0, 0);
+        game.playerMoveAlt(0, 0, 1);
+        //The same tile again
+        game.playerMoveAlt(0, 0, 0);
+        assertTrue(recorder.changeSets.isEmpty());
+        game.endChanges();
+
+        assertEquals(1, recorder.changeSets.size());
+        BoardChangeSet changes = recorder.changeSets.get(0);
+        assertEquals(2, changes.size());
+        assertEquals(game.getTile(0, 0).pack(), changes.getValue(0));
+    }
+}
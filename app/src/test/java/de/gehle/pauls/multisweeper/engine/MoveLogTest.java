@@ -0,0 +1,122 @@
+package de.gehle.pauls.multisweeper.engine;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andi
+ */
+public class MoveLogTest {
+
+    private static final MinesweeperObserver NO_OBSERVER = new MinesweeperObserver() {
+        @Override
+        public void onBoardChanged(BoardChangeSet changes) {
+        }
+
+        @Override
+        public void onGameStateChanged(Game.GameState newState) {
+        }
+
+        @Override
+        public void updateTimer(int secondsPassed) {
+        }
+
+        @Override
+        public void updateCounter(int newValue) {
+        }
+    };
+
+    @Test
+    public void packsMoves() {
+        MoveLog log = new MoveLog();
+        log.add(false, 3, 7);
+        log.add(true, 1000, 20000);
+
+        assertEquals(2, log.size());
+        assertFalse(MoveLog.isAltMove(log.get(0)));
+        assertEquals(3, MoveLog.getRow(log.get(0)));
+        assertEquals(7, MoveLog.getCol(log.get(0)));
+        assertTrue(MoveLog.isAltMove(log.get(1)));
+        assertEquals(1000, MoveLog.getRow(log.get(1)));
+        assertEquals(20000, MoveLog.getCol(log.get(1)));
+    }
+
+    @Test
+    public void growsBeyondItsCapacity() {
+        MoveLog log = new MoveLog();
+        for (int i = 0; i < 1000; ++i) {
+            log.add(false, i, i);
+        }
+        assertEquals(1000, log.size());
+        assertEquals(999, MoveLog.getRow(log.get(999)));
+    }
+
+    @Test
+    public void hashesTheMoves() {
+        MoveLog first = log(1, 2, 3);
+        assertEquals(first.getHash(), log(1, 2, 3).getHash());
+        assertNotEquals(first.getHash(), log(1, 3, 2).getHash());
+
+        first.clear();
+        assertEquals(0, first.size());
+        assertEquals(new MoveLog().getHash(), first.getHash());
+    }
+
+    @Test
+    public void startsWith() {
+        MoveLog log = log(1, 2, 3);
+        assertTrue(log.startsWith(new MoveLog()));
+        assertTrue(log.startsWith(log(1, 2)));
+        assertTrue(log.startsWith(log(1, 2, 3)));
+        assertFalse(log.startsWith(log(1, 3)));
+        assertFalse(log.startsWith(log(1, 2, 3, 4)));
+    }
+
+    @Test
+    public void convertsToJson() throws JSONException {
+        MoveLog log = new MoveLog();
+        log.add(false, 3, 7);
+        log.add(true, 5, 9);
+
+        MoveLog loaded = MoveLog.fromJson(log.toJson());
+        assertEquals(2, loaded.size());
+        assertEquals(log.get(0), loaded.get(0));
+        assertEquals(log.get(1), loaded.get(1));
+        assertEquals(log.getHash(), loaded.getHash());
+    }
+
+    @Test
+    public void replaysAGame() {
+        Game game = new Game(NO_OBSERVER, 9, 9, 10, 1, 42);
+        game.pause();
+        game.playerMove(0, 4, 4);
+        game.playerMoveAlt(0, 0, 0);
+        game.playerMove(0, 8, 8);
+
+        Game replayed = new Game(NO_OBSERVER, 9, 9, 10, 1, 42);
+        replayed.pause();
+        game.getMoveLog().replay(replayed, 0);
+
+        assertEquals(game.getGameState(), replayed.getGameState());
+        assertEquals(game.getUncoveredCount(), replayed.getUncoveredCount());
+        assertEquals(game.getMoveLog().getHash(), replayed.getMoveLog().getHash());
+        for (int row = 0; row < 9; ++row) {
+            for (int col = 0; col < 9; ++col) {
+                assertEquals(game.getTile(row, col).pack(), replayed.getTile(row, col).pack());
+            }
+        }
+    }
+
+    private static MoveLog log(int... moves) {
+        MoveLog log = new MoveLog();
+        for (int move : moves) {
+            log.add(move);
+        }
+        return log;
+    }
+}
@@ -0,0 +1,136 @@
+package de.gehle.pauls.multisweeper.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andi
+ */
+public class TimingWheelTest {
+
+    private static final long TICK = 5;
+
+    private TimingWheel wheel;
+
+    @Before
+    public void setUp() {
+        wheel = new TimingWheel(TICK);
+        wheel.start();
+    }
+
+    @After
+    public void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    public void runsNotBeforeTheDelay() throws InterruptedException {
+        //Within a tick, beyond level 0 and beyond level 1
+        long[] delays = {3, 120, 400};
+        for (long delay : delays) {
+            final CountDownLatch done = new CountDownLatch(1);
+            final AtomicLong ran = new AtomicLong();
+            long start = System.nanoTime();
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ran.set(System.nanoTime());
+                    done.countDown();
+                }
+            }, delay);
+
+            assertTrue(done.await(delay + 1000, TimeUnit.MILLISECONDS));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(ran.get() - start);
+            assertTrue("Ran after " + elapsed + " ms instead of " + delay, elapsed >= delay);
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelledTimeoutsDontRun() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        TimingWheel.Timeout cancelled = wheel.schedule(task, 50);
+        TimingWheel.Timeout kept = wheel.schedule(task, 50);
+        assertEquals(2, wheel.size());
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertTrue(cancelled.isDone());
+        assertEquals(1, wheel.size());
+
+        Thread.sleep(200);
+        assertEquals(1, runs.get());
+        assertTrue(kept.isDone());
+        assertFalse(kept.cancel());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void tickerReplacesThePendingTask() throws InterruptedException {
+        final AtomicInteger first = new AtomicInteger();
+        final AtomicInteger second = new AtomicInteger();
+        Timer.Ticker ticker = wheel.createTicker();
+        ticker.post(counter(first), 30);
+        ticker.post(counter(second), 30);
+
+        Thread.sleep(150);
+        assertEquals(0, first.get());
+        assertEquals(1, second.get());
+    }
+
+    @Test
+    public void cancelledTickerDoesntRepost() throws InterruptedException {
+        final Timer.Ticker ticker = wheel.createTicker();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+
+        //Like the clock of a game, which reposts itself
+        ticker.post(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                running.countDown();
+                try {
+                    cancelled.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ticker.post(this, 1);
+            }
+        }, 1);
+
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+        ticker.cancel();
+        cancelled.countDown();
+
+        Thread.sleep(100);
+        assertEquals(1, runs.get());
+        assertEquals(0, wheel.size());
+    }
+
+    private static Runnable counter(final AtomicInteger count) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+    }
+}
@@ -0,0 +1,186 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static de.gehle.pauls.multisweeper.storage.SaveGameMergerTest.save;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andi
+ */
+public class CloudSyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SaveLibrary store;
+    private FakeCloudBackend backend;
+    private CloudSync sync;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new SaveLibrary(new File(folder.getRoot(), "library.dat"));
+        backend = new FakeCloudBackend();
+        sync = new CloudSync(store, backend);
+    }
+
+    @Test
+    public void syncAllUploadsUnsyncedSaves() {
+        store.save("a", bytes("a1"));
+        store.save("b", bytes("b1"));
+
+        assertTrue(sync.syncAll());
+        assertEquals(2, backend.uploads);
+        assertArrayEquals(bytes("a1"), backend.games.get("a"));
+        assertTrue(store.read("a").isSynced());
+        assertTrue(store.read("b").isSynced());
+
+        //Nothing new
+        assertTrue(sync.syncAll());
+        assertEquals(2, backend.uploads);
+
+        store.save("a", bytes("a2"));
+        assertTrue(sync.syncAll());
+        assertEquals(3, backend.uploads);
+        assertArrayEquals(bytes("a2"), backend.games.get("a"));
+    }
+
+    @Test
+    public void syncAllKeepsFailedSlotsUnsynced() {
+        store.save("a", bytes("a1"));
+
+        backend.available = false;
+        assertFalse(sync.syncAll());
+        assertEquals(0, backend.uploads);
+        assertFalse(store.read("a").isSynced());
+
+        backend.available = true;
+        backend.failing = true;
+        assertFalse(sync.syncAll());
+        assertFalse(store.read("a").isSynced());
+
+        //Retried with the next sync
+        backend.failing = false;
+        assertTrue(sync.syncAll());
+        assertTrue(store.read("a").isSynced());
+    }
+
+    @Test
+    public void syncAllDeletesInTheCloud() {
+        store.save("a", bytes("a1"));
+        assertTrue(sync.syncAll());
+
+        assertTrue(store.delete("a"));
+        assertFalse(store.read("a").isSynced());
+        assertTrue(sync.syncAll());
+        assertEquals(1, backend.deletions);
+        assertNull(backend.games.get("a"));
+        assertTrue(store.read("a").isSynced());
+        assertTrue(store.read("a").isDeleted());
+    }
+
+    @Test
+    public void syncAllTakesAGameExtendedInTheCloud() {
+        store.save("a", save(42, 1, 2));
+        backend.put("a", save(42, 1, 2, 3), 0);
+
+        assertTrue(sync.syncAll());
+        assertArrayEquals(save(42, 1, 2, 3), store.load("a"));
+        assertArrayEquals(save(42, 1, 2, 3), backend.games.get("a"));
+        SaveLibrary.Slot slot = store.read("a");
+        assertEquals(2, slot.getSeq());
+        assertTrue(slot.isSynced());
+
+        //Nothing left to upload
+        assertTrue(sync.syncAll());
+        assertEquals(1, backend.uploads);
+    }
+
+    @Test
+    public void syncAllUploadsAnExtendedGame() {
+        store.save("a", save(42, 1, 2, 3));
+        backend.put("a", save(42, 1, 2), Long.MAX_VALUE);
+
+        assertTrue(sync.syncAll());
+        assertArrayEquals(save(42, 1, 2, 3), backend.games.get("a"));
+        assertEquals(1, store.read("a").getSeq());
+        assertTrue(store.read("a").isSynced());
+    }
+
+    @Test
+    public void syncAllKeepsTheNewerOfDivergedGames() {
+        //Played on from the same save on two devices, the device saved later
+        store.save("a", save(42, 1, 2));
+        backend.put("a", save(42, 1, 3), 0);
+        assertTrue(sync.syncAll());
+        assertArrayEquals(save(42, 1, 2), backend.games.get("a"));
+        assertArrayEquals(save(42, 1, 2), store.load("a"));
+
+        //The cloud saved later
+        store.save("b", save(42, 1, 2));
+        backend.put("b", save(42, 1, 3), Long.MAX_VALUE);
+        assertTrue(sync.syncAll());
+        assertArrayEquals(save(42, 1, 3), backend.games.get("b"));
+        assertArrayEquals(save(42, 1, 3), store.load("b"));
+        assertTrue(store.read("b").isSynced());
+    }
+
+    @Test
+    public void syncAllTakesANewerDivergedGameFromTheCloud() throws InterruptedException {
+        //Saved while signed out, then another device played on and saved before the sync
+        store.save("a", save(42, 1, 2));
+        long saveTime = store.read("a").getTime();
+        backend.put("a", save(42, 1, 3), saveTime + 1);
+        //The sync runs later than both saves
+        Thread.sleep(10);
+
+        assertTrue(sync.syncAll());
+        assertArrayEquals(save(42, 1, 3), backend.games.get("a"));
+        assertArrayEquals(save(42, 1, 3), store.load("a"));
+        assertTrue(store.read("a").isSynced());
+    }
+
+    @Test
+    public void restoreLoadsUnknownSlotsOnce() {
+        backend.games.put("a", bytes("cloud"));
+
+        assertArrayEquals(bytes("cloud"), sync.restore("a"));
+        SaveLibrary.Slot slot = store.read("a");
+        assertEquals(1, slot.getSeq());
+        assertTrue(slot.isSynced());
+
+        //Known to the device now
+        assertArrayEquals(bytes("cloud"), sync.restore("a"));
+        assertEquals(1, backend.downloads);
+        assertEquals(0, backend.uploads);
+    }
+
+    @Test
+    public void restorePrefersTheDevice() {
+        store.save("a", bytes("local"));
+        backend.games.put("a", bytes("cloud"));
+
+        assertArrayEquals(bytes("local"), sync.restore("a"));
+        assertEquals(0, backend.downloads);
+    }
+
+    @Test
+    public void restoreWithoutCloud() {
+        backend.available = false;
+        assertNull(sync.restore("a"));
+        assertNull(store.read("a"));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes();
+    }
+}
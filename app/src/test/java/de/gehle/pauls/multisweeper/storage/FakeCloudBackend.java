@@ -0,0 +1,85 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cloud in memory, for testing CloudSync
+ * <p/>
+ * Keeps its own game like SnapshotBackend, if the merge decides so (s. SaveGameMerger)
+ *
+ * @author Andi
+ */
+class FakeCloudBackend implements CloudBackend {
+
+    final Map<String, byte[]> games = new HashMap<String, byte[]>();
+    final Map<String, Long> modified = new HashMap<String, Long>();
+    boolean available = true;
+    boolean failing = false;
+
+    int uploads = 0;
+    int downloads = 0;
+    int deletions = 0;
+
+    @Override
+    public boolean isAvailable() {
+        return available;
+    }
+
+    @Override
+    public byte[] upload(String name, byte[] data, long saveTime, Bitmap cover) {
+        ++uploads;
+        if (failing) {
+            return null;
+        }
+        byte[] current = games.get(name);
+        if (current != null && !SaveGameMerger.keepFirst(data, saveTime, current, getModified(name))) {
+            return current;
+        }
+        put(name, data, saveTime);
+        return data;
+    }
+
+    void put(String name, byte[] data, long time) {
+        games.put(name, data);
+        modified.put(name, time);
+    }
+
+    private long getModified(String name) {
+        Long time = modified.get(name);
+        return time != null ? time : 0;
+    }
+
+    @Override
+    public byte[] download(String name) {
+        ++downloads;
+        return failing ? null : games.get(name);
+    }
+
+    @Override
+    public boolean delete(String name) {
+        ++deletions;
+        if (failing) {
+            return false;
+        }
+        games.remove(name);
+        modified.remove(name);
+        return true;
+    }
+
+    @Override
+    public List<SaveMetadata> loadMetadata() {
+        if (failing) {
+            return null;
+        }
+        List<SaveMetadata> list = new ArrayList<SaveMetadata>();
+        for (String name : games.keySet()) {
+            list.add(new SaveMetadata(name, getModified(name), null, false));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,193 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import de.gehle.pauls.multisweeper.engine.BoardChangeSet;
+import de.gehle.pauls.multisweeper.engine.Game;
+import de.gehle.pauls.multisweeper.engine.MinesweeperObserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Andi
+ */
+public class MoveJournalTest {
+
+    private static final MinesweeperObserver NO_OBSERVER = new MinesweeperObserver() {
+        @Override
+        public void onBoardChanged(BoardChangeSet changes) {
+        }
+
+        @Override
+        public void onGameStateChanged(Game.GameState newState) {
+        }
+
+        @Override
+        public void updateTimer(int secondsPassed) {
+        }
+
+        @Override
+        public void updateCounter(int newValue) {
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private MoveJournal journal;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "moves.journal");
+        journal = new MoveJournal(file);
+    }
+
+    @Test
+    public void replaysANewGame() throws InterruptedException {
+        Game game = new Game(NO_OBSERVER, 16, 16, 40, 1, 42);
+        game.pause();
+        journal.begin(game);
+        game.playerMove(0, 8, 8);
+        journal.onMoves(game);
+        int moves = playMarkers(game, 40);
+
+        MoveJournal.Recovery recovery = awaitMoves(moves);
+        assertNull(recovery.getSlotName());
+        assertSameBoard(game, recovery.toSaveGame());
+    }
+
+    @Test
+    public void replaysAContinuedGameIntoItsSlot() throws InterruptedException {
+        Game played = new Game(NO_OBSERVER, 16, 16, 40, 1, 42);
+        played.pause();
+        played.playerMove(0, 8, 8);
+        byte[] saveGame = played.toBytes();
+
+        Game game = new Game(NO_OBSERVER, saveGame);
+        game.pause();
+        journal.begin(game, saveGame, "save-1");
+        int saved = game.getMoveLog().size();
+        int moves = playMarkers(game, 40);
+
+        //Only the moves after the save game are journaled
+        MoveJournal.Recovery recovery = awaitMoves(moves - saved);
+        assertEquals("save-1", recovery.getSlotName());
+        assertSameBoard(game, recovery.toSaveGame());
+    }
+
+    @Test
+    public void recordsTheSlotOfANewGame() throws InterruptedException {
+        Game game = new Game(NO_OBSERVER, 16, 16, 40, 1, 42);
+        game.pause();
+        journal.begin(game);
+        game.playerMove(0, 8, 8);
+        journal.onMoves(game);
+        int moves = playMarkers(game, 40);
+        awaitMoves(moves);
+
+        //The game is saved the first time
+        journal.setSlotName("save-2");
+        MoveJournal.Recovery recovery = null;
+        for (int i = 0; i < 100; ++i) {
+            recovery = journal.read();
+            if ("save-2".equals(recovery.getSlotName())) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        assertEquals("save-2", recovery.getSlotName());
+        assertEquals(moves, recovery.getMoveCount());
+        assertSameBoard(game, recovery.toSaveGame());
+    }
+
+    @Test
+    public void cutsOffATornRecord() throws Exception {
+        Game game = new Game(NO_OBSERVER, 16, 16, 40, 1, 42);
+        game.pause();
+        journal.begin(game);
+        game.playerMove(0, 8, 8);
+        journal.onMoves(game);
+        int moves = playMarkers(game, 40);
+        awaitMoves(moves);
+
+        //A crash while writing the next moves
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[]{'M', 0, 0, 0, 40, 1, 2});
+        out.close();
+
+        MoveJournal.Recovery recovery = journal.read();
+        assertNotNull(recovery);
+        assertEquals(moves, recovery.getMoveCount());
+        assertSameBoard(game, recovery.toSaveGame());
+    }
+
+    @Test
+    public void nothingToRecover() throws InterruptedException {
+        assertNull(journal.read());
+
+        Game game = new Game(NO_OBSERVER, 16, 16, 40, 1, 42);
+        game.pause();
+        journal.begin(game);
+        game.playerMove(0, 8, 8);
+        journal.onMoves(game);
+        int moves = playMarkers(game, 40);
+        awaitMoves(moves);
+
+        journal.clear();
+        for (int i = 0; i < 100 && file.exists(); ++i) {
+            Thread.sleep(50);
+        }
+        assertNull(journal.read());
+    }
+
+    /**
+     * Toggles markers in the last row, enough to write the moves at once
+     *
+     * @return Number of moves of the game
+     */
+    private int playMarkers(Game game, int count) {
+        for (int i = 0; i < count; ++i) {
+            game.playerMoveAlt(0, 15, i % 16);
+            journal.onMoves(game);
+        }
+        return game.getMoveLog().size();
+    }
+
+    /**
+     * The journal is written in the background
+     */
+    private MoveJournal.Recovery awaitMoves(int count) throws InterruptedException {
+        for (int i = 0; i < 100; ++i) {
+            MoveJournal.Recovery recovery = journal.read();
+            if (recovery != null && recovery.getMoveCount() == count) {
+                return recovery;
+            }
+            Thread.sleep(50);
+        }
+        fail("Journal doesn't contain " + count + " moves");
+        return null;
+    }
+
+    private static void assertSameBoard(Game expected, byte[] saveGame) {
+        assertNotNull(saveGame);
+        Game recovered = new Game(NO_OBSERVER, saveGame);
+        recovered.pause();
+        assertEquals(expected.getUncoveredCount(), recovered.getUncoveredCount());
+        assertEquals(expected.getFlagCount(), recovered.getFlagCount());
+        for (int row = 0; row < expected.getRows(); ++row) {
+            for (int col = 0; col < expected.getCols(); ++col) {
+                assertEquals(expected.getTile(row, col).pack(), recovered.getTile(row, col).pack());
+            }
+        }
+    }
+}
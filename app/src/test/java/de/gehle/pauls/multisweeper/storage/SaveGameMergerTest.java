@@ -0,0 +1,56 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andi
+ */
+public class SaveGameMergerTest {
+
+    @Test
+    public void keepsTheLongerMoveLog() {
+        //No matter which was saved later
+        assertTrue(SaveGameMerger.keepFirst(save(42, 1, 2, 3), 0, save(42, 1, 2), 100));
+        assertFalse(SaveGameMerger.keepFirst(save(42, 1, 2), 100, save(42, 1, 2, 3), 0));
+    }
+
+    @Test
+    public void keepsEitherOfEqualSaves() {
+        assertTrue(SaveGameMerger.keepFirst(save(42, 1, 2), 0, save(42, 1, 2), 100));
+    }
+
+    @Test
+    public void keepsTheNewerOfDivergedSaves() {
+        assertTrue(SaveGameMerger.keepFirst(save(42, 1, 2), 100, save(42, 1, 3), 0));
+        assertFalse(SaveGameMerger.keepFirst(save(42, 1, 2), 0, save(42, 1, 3), 100));
+    }
+
+    @Test
+    public void keepsTheNewerOfDifferentGames() {
+        assertTrue(SaveGameMerger.keepFirst(save(42, 1, 2, 3), 100, save(7, 1, 2), 0));
+        assertFalse(SaveGameMerger.keepFirst(save(42, 1, 2, 3), 0, save(7, 1, 2), 100));
+    }
+
+    @Test
+    public void keepsTheNewerOfSavesWithoutMoves() {
+        byte[] old = "{\"gameBoard\":{}}".getBytes();
+        assertFalse(SaveGameMerger.keepFirst(old, 0, save(42, 1), 100));
+        assertTrue(SaveGameMerger.keepFirst(old, 100, save(42, 1, 2), 0));
+        assertTrue(SaveGameMerger.keepFirst("broken".getBytes(), 100, save(42, 1), 0));
+        assertFalse(SaveGameMerger.keepFirst(null, 0, save(42, 1), 100));
+    }
+
+    /**
+     * @return Save game with the seed and the moves (s. Game.toString)
+     */
+    static byte[] save(long seed, int... moves) {
+        StringBuilder json = new StringBuilder("{\"seed\":").append(seed).append(",\"moves\":[");
+        for (int i = 0; i < moves.length; ++i) {
+            json.append(i > 0 ? "," : "").append(moves[i]);
+        }
+        return json.append("]}").toString().getBytes();
+    }
+}
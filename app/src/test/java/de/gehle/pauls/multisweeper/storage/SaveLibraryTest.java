@@ -0,0 +1,189 @@
+package de.gehle.pauls.multisweeper.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Andi
+ */
+public class SaveLibraryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private SaveLibrary library;
+
+    @Before
+    public void setUp() {
+        file = new File(new File(folder.getRoot(), "saves"), "library.dat");
+        library = new SaveLibrary(file);
+    }
+
+    @Test
+    public void savesIntoSlots() {
+        assertNull(library.read("a"));
+        assertTrue(library.save("a", bytes("a1")));
+        assertTrue(library.save("a", bytes("a2")));
+        assertTrue(library.save("b", bytes("b1")));
+
+        assertArrayEquals(bytes("a2"), library.load("a"));
+        SaveLibrary.Slot slot = library.read("a");
+        assertEquals(2, slot.getSeq());
+        assertFalse(slot.isDeleted());
+        assertFalse(slot.isSynced());
+        assertEquals(2, library.getSlots().size());
+    }
+
+    @Test
+    public void keepsDeletionsAndSyncs() {
+        library.save("a", bytes("a1"));
+        assertTrue(library.markSynced("a", 1));
+        assertTrue(library.read("a").isSynced());
+
+        assertTrue(library.delete("a"));
+        assertFalse(library.delete("a"));
+        assertNull(library.load("a"));
+        SaveLibrary.Slot slot = library.read("a");
+        assertTrue(slot.isDeleted());
+        assertEquals(2, slot.getSeq());
+        assertFalse(slot.isSynced());
+    }
+
+    @Test
+    public void replacesOnlyAnUnchangedSlot() {
+        library.save("a", bytes("a1"));
+        assertTrue(library.replace("a", 1, bytes("cloud")));
+        assertArrayEquals(bytes("cloud"), library.load("a"));
+
+        //Saved meanwhile
+        assertFalse(library.replace("a", 1, bytes("old")));
+        assertFalse(library.replace("b", 0, bytes("b1")));
+        assertArrayEquals(bytes("cloud"), library.load("a"));
+    }
+
+    @Test
+    public void archivesFinishedGames() {
+        String name = library.archive(bytes("won"));
+        assertNotNull(name);
+        assertArrayEquals(bytes("won"), library.loadArchive(name));
+        assertEquals(1, library.getArchives().size());
+        assertTrue(library.getArchives().get(0).isArchive());
+        //Not a slot
+        assertTrue(library.getSlots().isEmpty());
+    }
+
+    @Test
+    public void readsTheIndexFromTheFile() {
+        library.save("a", bytes("a1"));
+        library.save("a", bytes("a2"));
+        library.markSynced("a", 2);
+        library.save("b", bytes("b1"));
+        library.delete("b");
+        String archived = library.archive(bytes("won"));
+
+        SaveLibrary reopened = new SaveLibrary(file);
+        assertArrayEquals(bytes("a2"), reopened.load("a"));
+        assertEquals(2, reopened.read("a").getSeq());
+        assertTrue(reopened.read("a").isSynced());
+        assertTrue(reopened.read("b").isDeleted());
+        assertArrayEquals(bytes("won"), reopened.loadArchive(archived));
+    }
+
+    @Test
+    public void cutsOffATornRecord() throws Exception {
+        library.save("a", bytes("a1"));
+        long length = file.length();
+        library.save("a", bytes("a2"));
+
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.setLength(file.length() - 3);
+        access.close();
+
+        SaveLibrary reopened = new SaveLibrary(file);
+        assertArrayEquals(bytes("a1"), reopened.load("a"));
+        assertEquals(length, file.length());
+        //The cut off space is used again
+        assertTrue(reopened.save("a", bytes("a3")));
+        assertArrayEquals(bytes("a3"), new SaveLibrary(file).load("a"));
+    }
+
+    @Test
+    public void cutsOffARecordWithAWrongCrc() throws Exception {
+        library.save("a", bytes("a1"));
+        library.save("a", bytes("a2"));
+
+        //Last byte of the data of a2
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.seek(file.length() - 5);
+        access.write('x');
+        access.close();
+
+        SaveLibrary reopened = new SaveLibrary(file);
+        assertArrayEquals(bytes("a1"), reopened.load("a"));
+        assertEquals(1, reopened.read("a").getSeq());
+    }
+
+    @Test
+    public void compactsOutdatedRecords() {
+        byte[] data = new byte[10000];
+        String archived = library.archive(bytes("won"));
+        library.save("deleted", bytes("gone"));
+        library.delete("deleted");
+        library.markSynced("deleted", 2);
+        for (int i = 0; i < 100; ++i) {
+            data[0] = (byte) i;
+            assertTrue(library.save("a", data));
+        }
+        library.markSynced("a", 99);
+
+        //Compacted whenever most of the file was outdated
+        assertTrue(file.length() < 50 * data.length);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        SaveLibrary.Slot slot = library.read("a");
+        assertEquals(100, slot.getSeq());
+        assertFalse(slot.isSynced());
+        assertEquals(99, library.load("a")[0]);
+        assertArrayEquals(bytes("won"), library.loadArchive(archived));
+        assertNull(library.read("deleted"));
+
+        SaveLibrary reopened = new SaveLibrary(file);
+        assertEquals(99, reopened.load("a")[0]);
+        assertEquals(100, reopened.read("a").getSeq());
+        List<SaveLibrary.Slot> archives = reopened.getArchives();
+        assertEquals(1, archives.size());
+    }
+
+    @Test
+    public void savesDespiteAFailedCompaction() {
+        //The new file can't be created
+        File tmp = new File(file.getPath() + ".tmp");
+        assertTrue(new File(tmp, "blocked").mkdirs());
+
+        byte[] data = new byte[10000];
+        for (int i = 0; i < 40; ++i) {
+            data[0] = (byte) i;
+            assertTrue(library.save("a", data));
+        }
+        assertEquals(39, library.load("a")[0]);
+        assertEquals(40, new SaveLibrary(file).read("a").getSeq());
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes();
+    }
+}